@@ -0,0 +1,76 @@
+package de.grajcar.aptlombokdemo.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the generated {@code compare} helpers against hand-written equivalents.
+ * The compared objects are distinct but equal, so that the whole chain gets evaluated.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompareBenchmark {
+	@Benchmark public int generatedFields1() {
+		return _Fields1_MakeComparableHelper.compare(fields1, otherFields1);
+	}
+
+	@Benchmark public int handWrittenFields1() {
+		return Fields1.handWrittenCompare(fields1, otherFields1);
+	}
+
+	@Benchmark public int generatedFields8() {
+		return _Fields8_MakeComparableHelper.compare(fields8, otherFields8);
+	}
+
+	@Benchmark public int handWrittenFields8() {
+		return Fields8.handWrittenCompare(fields8, otherFields8);
+	}
+
+	@Benchmark public int generatedFields64() {
+		return _Fields64_MakeComparableHelper.compare(fields64, otherFields64);
+	}
+
+	@Benchmark public int handWrittenFields64() {
+		return Fields64.handWrittenCompare(fields64, otherFields64);
+	}
+
+	@Benchmark public int generatedNested() {
+		return _Nested_MakeComparableHelper.compare(nested, otherNested);
+	}
+
+	@Benchmark public int handWrittenNested() {
+		return Nested.handWrittenCompare(nested, otherNested);
+	}
+
+	@Benchmark public int generatedMethods() {
+		return _Methods_MakeComparableHelper.compare(methods, otherMethods);
+	}
+
+	@Benchmark public int handWrittenMethods() {
+		return Methods.handWrittenCompare(methods, otherMethods);
+	}
+
+	private final Fields1 fields1 = new Fields1(42);
+	private final Fields1 otherFields1 = new Fields1(42);
+	private final Fields8 fields8 = new Fields8(42);
+	private final Fields8 otherFields8 = new Fields8(42);
+	private final Fields64 fields64 = new Fields64(42);
+	private final Fields64 otherFields64 = new Fields64(42);
+	private final Nested nested = new Nested(42);
+	private final Nested otherNested = new Nested(42);
+	private final Methods methods = new Methods(42);
+	private final Methods otherMethods = new Methods(42);
+}
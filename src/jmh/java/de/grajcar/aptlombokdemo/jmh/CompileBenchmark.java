@@ -0,0 +1,177 @@
+package de.grajcar.aptlombokdemo.jmh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.processing.Processor;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import com.sun.management.ThreadMXBean;
+
+import de.grajcar.aptlombokdemo.impl.DemoProcessor;
+
+/**
+ * Measures the cost of the annotation processor by compiling synthesized annotated sources in-process and in-memory.
+ * For each class count, member count and feature, a baseline compilation without the processor gets compared
+ * against a compilation with it, reporting the wall time, the bytes allocated by the compiling thread
+ * and the generated source bytes per type.
+ *
+ * <p>Arguments: class counts, member counts and features, each comma-separated, e.g., {@code 1000,10000 4,16 ToString}.
+ */
+public class CompileBenchmark {
+	private static final class Result {
+		Result(long nanos, long allocatedBytes, long generatedSourceBytes) {
+			this.nanos = nanos;
+			this.allocatedBytes = allocatedBytes;
+			this.generatedSourceBytes = generatedSourceBytes;
+		}
+
+		final long nanos;
+		final long allocatedBytes;
+		final long generatedSourceBytes;
+	}
+
+	/** Keeps all outputs in memory, counting the bytes of the generated sources. */
+	private static final class InMemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+		InMemoryFileManager(StandardJavaFileManager fileManager) {
+			super(fileManager);
+		}
+
+		@Override public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+			return new InMemoryOutput(location.getName() + "/" + className, kind);
+		}
+
+		private final class InMemoryOutput extends SimpleJavaFileObject {
+			InMemoryOutput(String path, Kind kind) {
+				super(URI.create("mem:///" + path.replace('.', '/') + kind.extension), kind);
+			}
+
+			@Override public OutputStream openOutputStream() {
+				return new ByteArrayOutputStream() {
+					@Override public void close() {
+						content = toByteArray();
+						if (getKind() == Kind.SOURCE) generatedSourceBytes.addAndGet(content.length);
+					}
+				};
+			}
+
+			@Override public Writer openWriter() {
+				return new OutputStreamWriter(openOutputStream(), StandardCharsets.UTF_8);
+			}
+
+			@Override public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return new String(content, StandardCharsets.UTF_8);
+			}
+
+			private byte[] content = new byte[0];
+		}
+
+		final AtomicLong generatedSourceBytes = new AtomicLong();
+	}
+
+	private static final class InMemorySource extends SimpleJavaFileObject {
+		InMemorySource(String className, String content) {
+			super(URI.create("mem:///src/" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+			this.content = content;
+		}
+
+		@Override public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return content;
+		}
+
+		private final String content;
+	}
+
+	public static void main(String[] args) throws Exception {
+		final List<Integer> classCounts = parseInts(args.length > 0 ? args[0] : "1000,10000,50000");
+		final List<Integer> memberCounts = parseInts(args.length > 1 ? args[1] : "4,16");
+		final List<String> features = Arrays.asList((args.length > 2 ? args[2] : "ToString,MakeComparable").split(","));
+
+		System.out.println("Warming up...");
+		for (int i=0; i<3; ++i) {
+			for (final String feature : features) compile(synthesize(200, 8, feature), true);
+		}
+
+		System.out.println(String.format(Locale.ROOT, "%-15s %8s %8s %12s %12s %12s %12s %10s",
+				"feature", "classes", "members", "baseMs", "procMs", "baseMB", "procMB", "genB/type"));
+		for (final String feature : features) {
+			for (final int classCount : classCounts) {
+				for (final int memberCount : memberCounts) {
+					final List<JavaFileObject> sources = synthesize(classCount, memberCount, feature);
+					final Result baseline = compile(sources, false);
+					final Result processed = compile(sources, true);
+					System.out.println(String.format(Locale.ROOT, "%-15s %8d %8d %12.1f %12.1f %12.1f %12.1f %10d",
+							feature, classCount, memberCount,
+							baseline.nanos / 1e6, processed.nanos / 1e6,
+							baseline.allocatedBytes / 1e6, processed.allocatedBytes / 1e6,
+							processed.generatedSourceBytes / classCount));
+				}
+			}
+		}
+	}
+
+	private static List<Integer> parseInts(String s) {
+		final List<Integer> result = new ArrayList<>();
+		for (final String part : s.split(",")) result.add(Integer.valueOf(part.trim()));
+		return result;
+	}
+
+	/** Create the given number of classes annotated by the feature, spread over packages of at most 100 classes. */
+	private static List<JavaFileObject> synthesize(int classCount, int memberCount, String feature) {
+		final String[] types = {"int", "String", "long", "double"};
+		final List<JavaFileObject> result = new ArrayList<>();
+		for (int i=0; i<classCount; ++i) {
+			final String packageName = "bench.p" + (i / 100);
+			final String simpleName = "C" + i;
+			final StringBuilder sb = new StringBuilder();
+			sb.append("package ").append(packageName).append(";\n\n");
+			sb.append("@de.grajcar.aptlombokdemo.").append(feature).append("\n");
+			sb.append("public class ").append(simpleName).append(" {\n");
+			for (int j=0; j<memberCount; ++j) {
+				sb.append("\t").append(j % 3 == 2 ? "private " : "").append(types[j % types.length]).append(" f").append(j).append(";\n");
+			}
+			sb.append("}\n");
+			result.add(new InMemorySource(packageName + "." + simpleName, sb.toString()));
+		}
+		return result;
+	}
+
+	private static Result compile(List<JavaFileObject> sources, boolean withProcessor) throws Exception {
+		final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		final ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		final long threadId = Thread.currentThread().getId();
+		System.gc();
+
+		final long startBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+		final long startNanos = System.nanoTime();
+		try (InMemoryFileManager fileManager = new InMemoryFileManager(compiler.getStandardFileManager(diagnostics, Locale.ROOT, null))) {
+			final List<String> options = new ArrayList<>(Arrays.asList("-classpath", System.getProperty("java.class.path")));
+			if (!withProcessor) options.add("-proc:none");
+			final JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null, sources);
+			if (withProcessor) task.setProcessors(Collections.<Processor>singletonList(new DemoProcessor()));
+			if (!task.call()) throw new IllegalStateException("Compilation failed: " + diagnostics.getDiagnostics());
+			final long nanos = System.nanoTime() - startNanos;
+			final long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - startBytes;
+			return new Result(nanos, allocatedBytes, fileManager.generatedSourceBytes.get());
+		}
+	}
+}
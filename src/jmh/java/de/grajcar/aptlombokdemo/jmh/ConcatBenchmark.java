@@ -0,0 +1,54 @@
+package de.grajcar.aptlombokdemo.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the single string concatenation generated for Java 9+ against the {@code StringBuilder} chain generated for Java 8.
+ * The latter is exactly what the {@code StringBuilder} overload of the very same helper does, so no second compilation is needed.
+ * With 64 fields, both are the same, as such a long concatenation doesn't get inlined and ends up much slower than the builder.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConcatBenchmark {
+	@Benchmark public String concatFields4() {
+		return _Fields4_ToStringHelper.toString(fields4);
+	}
+
+	@Benchmark public String builderFields4() {
+		return _Fields4_ToStringHelper.toString(fields4, new StringBuilder()).toString();
+	}
+
+	@Benchmark public String concatFields16() {
+		return _Fields16_ToStringHelper.toString(fields16);
+	}
+
+	@Benchmark public String builderFields16() {
+		return _Fields16_ToStringHelper.toString(fields16, new StringBuilder()).toString();
+	}
+
+	@Benchmark public String concatFields64() {
+		return _Fields64_ToStringHelper.toString(fields64);
+	}
+
+	@Benchmark public String builderFields64() {
+		return _Fields64_ToStringHelper.toString(fields64, new StringBuilder()).toString();
+	}
+
+	private final Fields4 fields4 = new Fields4(42);
+	private final Fields16 fields16 = new Fields16(42);
+	private final Fields64 fields64 = new Fields64(42);
+}
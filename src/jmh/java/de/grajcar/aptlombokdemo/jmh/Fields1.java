@@ -0,0 +1,29 @@
+package de.grajcar.aptlombokdemo.jmh;
+
+import de.grajcar.aptlombokdemo.MakeComparable;
+import de.grajcar.aptlombokdemo.ToString;
+
+/** A fixture with a single primitive field. */
+@ToString
+@MakeComparable
+public class Fields1 {
+	public Fields1(int seed) {
+		f0 = seed;
+	}
+
+	@Override public String toString() {
+		return _Fields1_ToStringHelper.toString(this);
+	}
+
+	public String handWrittenToString() {
+		return "Fields1(f0=" + f0
+				+ ")";
+	}
+
+	public static int handWrittenCompare(Fields1 first, Fields1 second) {
+		int result;
+		return Integer.compare(first.f0, second.f0);
+	}
+
+	int f0;
+}
@@ -0,0 +1,67 @@
+package de.grajcar.aptlombokdemo.jmh;
+
+import de.grajcar.aptlombokdemo.ToString;
+
+/** A fixture with 16 fields of various primitive types and Strings. */
+@ToString(writeTo = true)
+public class Fields16 {
+	public Fields16(int seed) {
+		f0 = seed;
+		f1 = seed * 31L + 1;
+		f2 = seed / 7.0 + 2;
+		f3 = (seed + 3) % 2 == 0;
+		f4 = "s" + (seed + 4);
+		f5 = (char) ('a' + (seed + 5) % 26);
+		f6 = (short) (seed + 6);
+		f7 = "t" + (seed * 7);
+		f8 = seed + 8;
+		f9 = seed * 31L + 9;
+		f10 = seed / 7.0 + 10;
+		f11 = (seed + 11) % 2 == 0;
+		f12 = "s" + (seed + 12);
+		f13 = (char) ('a' + (seed + 13) % 26);
+		f14 = (short) (seed + 14);
+		f15 = "t" + (seed * 15);
+	}
+
+	@Override public String toString() {
+		return _Fields16_ToStringHelper.toString(this);
+	}
+
+	public String handWrittenToString() {
+		return "Fields16(f0=" + f0
+				+ ", f1=" + f1
+				+ ", f2=" + f2
+				+ ", f3=" + f3
+				+ ", f4=" + f4
+				+ ", f5=" + f5
+				+ ", f6=" + f6
+				+ ", f7=" + f7
+				+ ", f8=" + f8
+				+ ", f9=" + f9
+				+ ", f10=" + f10
+				+ ", f11=" + f11
+				+ ", f12=" + f12
+				+ ", f13=" + f13
+				+ ", f14=" + f14
+				+ ", f15=" + f15
+				+ ")";
+	}
+
+	int f0;
+	long f1;
+	double f2;
+	boolean f3;
+	String f4;
+	char f5;
+	short f6;
+	String f7;
+	int f8;
+	long f9;
+	double f10;
+	boolean f11;
+	String f12;
+	char f13;
+	short f14;
+	String f15;
+}
@@ -0,0 +1,31 @@
+package de.grajcar.aptlombokdemo.jmh;
+
+import de.grajcar.aptlombokdemo.ToString;
+
+/** A fixture with four fields of various primitive types and Strings. */
+@ToString
+public class Fields4 {
+	public Fields4(int seed) {
+		f0 = seed;
+		f1 = seed * 31L + 1;
+		f2 = seed / 7.0 + 2;
+		f3 = (seed + 3) % 2 == 0;
+	}
+
+	@Override public String toString() {
+		return _Fields4_ToStringHelper.toString(this);
+	}
+
+	public String handWrittenToString() {
+		return "Fields4(f0=" + f0
+				+ ", f1=" + f1
+				+ ", f2=" + f2
+				+ ", f3=" + f3
+				+ ")";
+	}
+
+	int f0;
+	long f1;
+	double f2;
+	boolean f3;
+}
@@ -0,0 +1,281 @@
+package de.grajcar.aptlombokdemo.jmh;
+
+import de.grajcar.aptlombokdemo.MakeComparable;
+import de.grajcar.aptlombokdemo.ToString;
+
+/** A fixture with 64 fields of various primitive types and Strings. */
+@ToString
+@MakeComparable
+public class Fields64 {
+	public Fields64(int seed) {
+		f0 = seed;
+		f1 = seed * 31L + 1;
+		f2 = seed / 7.0 + 2;
+		f3 = (seed + 3) % 2 == 0;
+		f4 = "s" + (seed + 4);
+		f5 = (char) ('a' + (seed + 5) % 26);
+		f6 = (short) (seed + 6);
+		f7 = "t" + (seed * 7);
+		f8 = seed + 8;
+		f9 = seed * 31L + 9;
+		f10 = seed / 7.0 + 10;
+		f11 = (seed + 11) % 2 == 0;
+		f12 = "s" + (seed + 12);
+		f13 = (char) ('a' + (seed + 13) % 26);
+		f14 = (short) (seed + 14);
+		f15 = "t" + (seed * 15);
+		f16 = seed + 16;
+		f17 = seed * 31L + 17;
+		f18 = seed / 7.0 + 18;
+		f19 = (seed + 19) % 2 == 0;
+		f20 = "s" + (seed + 20);
+		f21 = (char) ('a' + (seed + 21) % 26);
+		f22 = (short) (seed + 22);
+		f23 = "t" + (seed * 23);
+		f24 = seed + 24;
+		f25 = seed * 31L + 25;
+		f26 = seed / 7.0 + 26;
+		f27 = (seed + 27) % 2 == 0;
+		f28 = "s" + (seed + 28);
+		f29 = (char) ('a' + (seed + 29) % 26);
+		f30 = (short) (seed + 30);
+		f31 = "t" + (seed * 31);
+		f32 = seed + 32;
+		f33 = seed * 31L + 33;
+		f34 = seed / 7.0 + 34;
+		f35 = (seed + 35) % 2 == 0;
+		f36 = "s" + (seed + 36);
+		f37 = (char) ('a' + (seed + 37) % 26);
+		f38 = (short) (seed + 38);
+		f39 = "t" + (seed * 39);
+		f40 = seed + 40;
+		f41 = seed * 31L + 41;
+		f42 = seed / 7.0 + 42;
+		f43 = (seed + 43) % 2 == 0;
+		f44 = "s" + (seed + 44);
+		f45 = (char) ('a' + (seed + 45) % 26);
+		f46 = (short) (seed + 46);
+		f47 = "t" + (seed * 47);
+		f48 = seed + 48;
+		f49 = seed * 31L + 49;
+		f50 = seed / 7.0 + 50;
+		f51 = (seed + 51) % 2 == 0;
+		f52 = "s" + (seed + 52);
+		f53 = (char) ('a' + (seed + 53) % 26);
+		f54 = (short) (seed + 54);
+		f55 = "t" + (seed * 55);
+		f56 = seed + 56;
+		f57 = seed * 31L + 57;
+		f58 = seed / 7.0 + 58;
+		f59 = (seed + 59) % 2 == 0;
+		f60 = "s" + (seed + 60);
+		f61 = (char) ('a' + (seed + 61) % 26);
+		f62 = (short) (seed + 62);
+		f63 = "t" + (seed * 63);
+	}
+
+	@Override public String toString() {
+		return _Fields64_ToStringHelper.toString(this);
+	}
+
+	public String handWrittenToString() {
+		return "Fields64(f0=" + f0
+				+ ", f1=" + f1
+				+ ", f2=" + f2
+				+ ", f3=" + f3
+				+ ", f4=" + f4
+				+ ", f5=" + f5
+				+ ", f6=" + f6
+				+ ", f7=" + f7
+				+ ", f8=" + f8
+				+ ", f9=" + f9
+				+ ", f10=" + f10
+				+ ", f11=" + f11
+				+ ", f12=" + f12
+				+ ", f13=" + f13
+				+ ", f14=" + f14
+				+ ", f15=" + f15
+				+ ", f16=" + f16
+				+ ", f17=" + f17
+				+ ", f18=" + f18
+				+ ", f19=" + f19
+				+ ", f20=" + f20
+				+ ", f21=" + f21
+				+ ", f22=" + f22
+				+ ", f23=" + f23
+				+ ", f24=" + f24
+				+ ", f25=" + f25
+				+ ", f26=" + f26
+				+ ", f27=" + f27
+				+ ", f28=" + f28
+				+ ", f29=" + f29
+				+ ", f30=" + f30
+				+ ", f31=" + f31
+				+ ", f32=" + f32
+				+ ", f33=" + f33
+				+ ", f34=" + f34
+				+ ", f35=" + f35
+				+ ", f36=" + f36
+				+ ", f37=" + f37
+				+ ", f38=" + f38
+				+ ", f39=" + f39
+				+ ", f40=" + f40
+				+ ", f41=" + f41
+				+ ", f42=" + f42
+				+ ", f43=" + f43
+				+ ", f44=" + f44
+				+ ", f45=" + f45
+				+ ", f46=" + f46
+				+ ", f47=" + f47
+				+ ", f48=" + f48
+				+ ", f49=" + f49
+				+ ", f50=" + f50
+				+ ", f51=" + f51
+				+ ", f52=" + f52
+				+ ", f53=" + f53
+				+ ", f54=" + f54
+				+ ", f55=" + f55
+				+ ", f56=" + f56
+				+ ", f57=" + f57
+				+ ", f58=" + f58
+				+ ", f59=" + f59
+				+ ", f60=" + f60
+				+ ", f61=" + f61
+				+ ", f62=" + f62
+				+ ", f63=" + f63
+				+ ")";
+	}
+
+	public static int handWrittenCompare(Fields64 first, Fields64 second) {
+		int result;
+		if ((result = Integer.compare(first.f0, second.f0)) != 0) return result;
+		if ((result = Long.compare(first.f1, second.f1)) != 0) return result;
+		if ((result = Double.compare(first.f2, second.f2)) != 0) return result;
+		if ((result = Boolean.compare(first.f3, second.f3)) != 0) return result;
+		if ((result = first.f4.compareTo(second.f4)) != 0) return result;
+		if ((result = Character.compare(first.f5, second.f5)) != 0) return result;
+		if ((result = Short.compare(first.f6, second.f6)) != 0) return result;
+		if ((result = first.f7.compareTo(second.f7)) != 0) return result;
+		if ((result = Integer.compare(first.f8, second.f8)) != 0) return result;
+		if ((result = Long.compare(first.f9, second.f9)) != 0) return result;
+		if ((result = Double.compare(first.f10, second.f10)) != 0) return result;
+		if ((result = Boolean.compare(first.f11, second.f11)) != 0) return result;
+		if ((result = first.f12.compareTo(second.f12)) != 0) return result;
+		if ((result = Character.compare(first.f13, second.f13)) != 0) return result;
+		if ((result = Short.compare(first.f14, second.f14)) != 0) return result;
+		if ((result = first.f15.compareTo(second.f15)) != 0) return result;
+		if ((result = Integer.compare(first.f16, second.f16)) != 0) return result;
+		if ((result = Long.compare(first.f17, second.f17)) != 0) return result;
+		if ((result = Double.compare(first.f18, second.f18)) != 0) return result;
+		if ((result = Boolean.compare(first.f19, second.f19)) != 0) return result;
+		if ((result = first.f20.compareTo(second.f20)) != 0) return result;
+		if ((result = Character.compare(first.f21, second.f21)) != 0) return result;
+		if ((result = Short.compare(first.f22, second.f22)) != 0) return result;
+		if ((result = first.f23.compareTo(second.f23)) != 0) return result;
+		if ((result = Integer.compare(first.f24, second.f24)) != 0) return result;
+		if ((result = Long.compare(first.f25, second.f25)) != 0) return result;
+		if ((result = Double.compare(first.f26, second.f26)) != 0) return result;
+		if ((result = Boolean.compare(first.f27, second.f27)) != 0) return result;
+		if ((result = first.f28.compareTo(second.f28)) != 0) return result;
+		if ((result = Character.compare(first.f29, second.f29)) != 0) return result;
+		if ((result = Short.compare(first.f30, second.f30)) != 0) return result;
+		if ((result = first.f31.compareTo(second.f31)) != 0) return result;
+		if ((result = Integer.compare(first.f32, second.f32)) != 0) return result;
+		if ((result = Long.compare(first.f33, second.f33)) != 0) return result;
+		if ((result = Double.compare(first.f34, second.f34)) != 0) return result;
+		if ((result = Boolean.compare(first.f35, second.f35)) != 0) return result;
+		if ((result = first.f36.compareTo(second.f36)) != 0) return result;
+		if ((result = Character.compare(first.f37, second.f37)) != 0) return result;
+		if ((result = Short.compare(first.f38, second.f38)) != 0) return result;
+		if ((result = first.f39.compareTo(second.f39)) != 0) return result;
+		if ((result = Integer.compare(first.f40, second.f40)) != 0) return result;
+		if ((result = Long.compare(first.f41, second.f41)) != 0) return result;
+		if ((result = Double.compare(first.f42, second.f42)) != 0) return result;
+		if ((result = Boolean.compare(first.f43, second.f43)) != 0) return result;
+		if ((result = first.f44.compareTo(second.f44)) != 0) return result;
+		if ((result = Character.compare(first.f45, second.f45)) != 0) return result;
+		if ((result = Short.compare(first.f46, second.f46)) != 0) return result;
+		if ((result = first.f47.compareTo(second.f47)) != 0) return result;
+		if ((result = Integer.compare(first.f48, second.f48)) != 0) return result;
+		if ((result = Long.compare(first.f49, second.f49)) != 0) return result;
+		if ((result = Double.compare(first.f50, second.f50)) != 0) return result;
+		if ((result = Boolean.compare(first.f51, second.f51)) != 0) return result;
+		if ((result = first.f52.compareTo(second.f52)) != 0) return result;
+		if ((result = Character.compare(first.f53, second.f53)) != 0) return result;
+		if ((result = Short.compare(first.f54, second.f54)) != 0) return result;
+		if ((result = first.f55.compareTo(second.f55)) != 0) return result;
+		if ((result = Integer.compare(first.f56, second.f56)) != 0) return result;
+		if ((result = Long.compare(first.f57, second.f57)) != 0) return result;
+		if ((result = Double.compare(first.f58, second.f58)) != 0) return result;
+		if ((result = Boolean.compare(first.f59, second.f59)) != 0) return result;
+		if ((result = first.f60.compareTo(second.f60)) != 0) return result;
+		if ((result = Character.compare(first.f61, second.f61)) != 0) return result;
+		if ((result = Short.compare(first.f62, second.f62)) != 0) return result;
+		return first.f63.compareTo(second.f63);
+	}
+
+	int f0;
+	long f1;
+	double f2;
+	boolean f3;
+	String f4;
+	char f5;
+	short f6;
+	String f7;
+	int f8;
+	long f9;
+	double f10;
+	boolean f11;
+	String f12;
+	char f13;
+	short f14;
+	String f15;
+	int f16;
+	long f17;
+	double f18;
+	boolean f19;
+	String f20;
+	char f21;
+	short f22;
+	String f23;
+	int f24;
+	long f25;
+	double f26;
+	boolean f27;
+	String f28;
+	char f29;
+	short f30;
+	String f31;
+	int f32;
+	long f33;
+	double f34;
+	boolean f35;
+	String f36;
+	char f37;
+	short f38;
+	String f39;
+	int f40;
+	long f41;
+	double f42;
+	boolean f43;
+	String f44;
+	char f45;
+	short f46;
+	String f47;
+	int f48;
+	long f49;
+	double f50;
+	boolean f51;
+	String f52;
+	char f53;
+	short f54;
+	String f55;
+	int f56;
+	long f57;
+	double f58;
+	boolean f59;
+	String f60;
+	char f61;
+	short f62;
+	String f63;
+}
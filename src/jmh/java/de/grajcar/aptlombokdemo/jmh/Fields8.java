@@ -0,0 +1,57 @@
+package de.grajcar.aptlombokdemo.jmh;
+
+import de.grajcar.aptlombokdemo.MakeComparable;
+import de.grajcar.aptlombokdemo.ToString;
+
+/** A fixture with eight fields of various primitive types and Strings. */
+@ToString
+@MakeComparable
+public class Fields8 {
+	public Fields8(int seed) {
+		f0 = seed;
+		f1 = seed * 31L + 1;
+		f2 = seed / 7.0 + 2;
+		f3 = (seed + 3) % 2 == 0;
+		f4 = "s" + (seed + 4);
+		f5 = (char) ('a' + (seed + 5) % 26);
+		f6 = (short) (seed + 6);
+		f7 = "t" + (seed * 7);
+	}
+
+	@Override public String toString() {
+		return _Fields8_ToStringHelper.toString(this);
+	}
+
+	public String handWrittenToString() {
+		return "Fields8(f0=" + f0
+				+ ", f1=" + f1
+				+ ", f2=" + f2
+				+ ", f3=" + f3
+				+ ", f4=" + f4
+				+ ", f5=" + f5
+				+ ", f6=" + f6
+				+ ", f7=" + f7
+				+ ")";
+	}
+
+	public static int handWrittenCompare(Fields8 first, Fields8 second) {
+		int result;
+		if ((result = Integer.compare(first.f0, second.f0)) != 0) return result;
+		if ((result = Long.compare(first.f1, second.f1)) != 0) return result;
+		if ((result = Double.compare(first.f2, second.f2)) != 0) return result;
+		if ((result = Boolean.compare(first.f3, second.f3)) != 0) return result;
+		if ((result = first.f4.compareTo(second.f4)) != 0) return result;
+		if ((result = Character.compare(first.f5, second.f5)) != 0) return result;
+		if ((result = Short.compare(first.f6, second.f6)) != 0) return result;
+		return first.f7.compareTo(second.f7);
+	}
+
+	int f0;
+	long f1;
+	double f2;
+	boolean f3;
+	String f4;
+	char f5;
+	short f6;
+	String f7;
+}
@@ -0,0 +1,45 @@
+package de.grajcar.aptlombokdemo.jmh;
+
+import de.grajcar.aptlombokdemo.MakeComparable;
+import de.grajcar.aptlombokdemo.ToString;
+
+/** A fixture using {@link ToString.Include} and {@link MakeComparable.Include} on both visible and private methods. */
+@ToString
+@ToString.Exclude
+@MakeComparable
+@MakeComparable.Exclude
+public class Methods {
+	public Methods(int seed) {
+		x = seed;
+		y = seed * 3;
+		label = "m" + seed;
+	}
+
+	@Override public String toString() {
+		return _Methods_ToStringHelper.toString(this);
+	}
+
+	public String handWrittenToString() {
+		return "Methods(sum=" + sum()
+				+ ", label=" + label()
+				+ ")";
+	}
+
+	public static int handWrittenCompare(Methods first, Methods second) {
+		final int result = Integer.compare(first.sum(), second.sum());
+		if (result != 0) return result;
+		return first.label().compareTo(second.label());
+	}
+
+	@ToString.Include @MakeComparable.Include int sum() {
+		return x + y;
+	}
+
+	@ToString.Include @MakeComparable.Include private String label() {
+		return label;
+	}
+
+	private final int x;
+	private final int y;
+	private final String label;
+}
@@ -0,0 +1,39 @@
+package de.grajcar.aptlombokdemo.jmh;
+
+import java.util.Arrays;
+
+import de.grajcar.aptlombokdemo.MakeComparable;
+import de.grajcar.aptlombokdemo.ToString;
+
+/** A fixture with a nested annotated type and arrays. */
+@ToString
+@MakeComparable
+public class Nested {
+	public Nested(int seed) {
+		name = "n" + seed;
+		inner = new Fields8(seed);
+		ints = new int[] {seed, seed + 1, seed + 2, seed + 3};
+		strings = new String[] {"a" + seed, "b" + seed};
+	}
+
+	@Override public String toString() {
+		return _Nested_ToStringHelper.toString(this);
+	}
+
+	public String handWrittenToString() {
+		return "Nested(name=" + name
+				+ ", inner=" + inner.handWrittenToString()
+				+ ", ints=" + Arrays.toString(ints)
+				+ ", strings=" + Arrays.toString(strings)
+				+ ")";
+	}
+
+	public static int handWrittenCompare(Nested first, Nested second) {
+		return first.name.compareTo(second.name);
+	}
+
+	String name;
+	@MakeComparable.Exclude Fields8 inner;
+	@MakeComparable.Exclude int[] ints;
+	@MakeComparable.Exclude String[] strings;
+}
@@ -0,0 +1,93 @@
+package de.grajcar.aptlombokdemo.jmh;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.grajcar.aptlombokdemo.Helpers;
+
+/**
+ * Compares the generated {@code toString} helpers against hand-written equivalents,
+ * writing to a {@link ByteBuffer} directly against encoding the string, and a lookup via {@link Helpers} against a direct call.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ToStringBenchmark {
+	@Benchmark public String generatedFields1() {
+		return _Fields1_ToStringHelper.toString(fields1);
+	}
+
+	@Benchmark public String handWrittenFields1() {
+		return fields1.handWrittenToString();
+	}
+
+	@Benchmark public String generatedFields8() {
+		return _Fields8_ToStringHelper.toString(fields8);
+	}
+
+	@Benchmark public String handWrittenFields8() {
+		return fields8.handWrittenToString();
+	}
+
+	@Benchmark public String lookedUpFields8() {
+		return Helpers.toStringFor(Fields8.class).apply(fields8);
+	}
+
+	@Benchmark public ByteBuffer writeToFields16() {
+		buffer.clear();
+		_Fields16_ToStringHelper.writeTo(fields16, buffer);
+		return buffer;
+	}
+
+	@Benchmark public ByteBuffer getBytesFields16() {
+		buffer.clear();
+		buffer.put(_Fields16_ToStringHelper.toString(fields16).getBytes(StandardCharsets.UTF_8));
+		return buffer;
+	}
+
+	@Benchmark public String generatedFields64() {
+		return _Fields64_ToStringHelper.toString(fields64);
+	}
+
+	@Benchmark public String handWrittenFields64() {
+		return fields64.handWrittenToString();
+	}
+
+	@Benchmark public String generatedNested() {
+		return _Nested_ToStringHelper.toString(nested);
+	}
+
+	@Benchmark public String handWrittenNested() {
+		return nested.handWrittenToString();
+	}
+
+	@Benchmark public String generatedMethods() {
+		return _Methods_ToStringHelper.toString(methods);
+	}
+
+	@Benchmark public String handWrittenMethods() {
+		return methods.handWrittenToString();
+	}
+
+	private final Fields1 fields1 = new Fields1(42);
+	private final Fields8 fields8 = new Fields8(42);
+	private final Fields16 fields16 = new Fields16(42);
+	private final ByteBuffer buffer = ByteBuffer.allocate(1024);
+	private final Fields64 fields64 = new Fields64(42);
+	private final Nested nested = new Nested(42);
+	private final Methods methods = new Methods(42);
+}
@@ -0,0 +1,110 @@
+package de.grajcar.aptlombokdemo;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The invocation counts of a helper generated with {@code -Aaptlombokdemo.metrics=true}, one instance per annotated type and feature.
+ *
+ * <p>The counters are {@link LongAdder}s, so that they don't become a point of contention when many threads log or sort.
+ * All instances can be obtained via {@link #all()}, e.g., for feeding them into a metrics library,
+ * and they're exposed via JMX as {@value #OBJECT_NAME}.
+ * An instance gets created and registered when the helper of its type and feature gets used for the first time,
+ * so types never used don't show up, even when aggregating.
+ *
+ * <p>Every object formatted counts, including nested ones, but hits of a {@link ToStringCache} don't, as the cache counts them itself.
+ */
+public final class HelperMetrics {
+	/** The view of all metrics exposed via JMX, keyed by {@code <type>/<feature>}. */
+	public interface RegistryMXBean {
+		Map<String, Long> getInvocations();
+
+		/** Return the number of characters produced by {@code toString}, or bytes written by {@code writeTo}. */
+		Map<String, Long> getChars();
+	}
+
+	private static final class Registry implements RegistryMXBean {
+		@Override public Map<String, Long> getInvocations() {
+			final Map<String, Long> result = new TreeMap<>();
+			ALL.forEach((k, v) -> result.put(k, v.invocations()));
+			return result;
+		}
+
+		@Override public Map<String, Long> getChars() {
+			final Map<String, Long> result = new TreeMap<>();
+			ALL.forEach((k, v) -> result.put(k, v.chars()));
+			return result;
+		}
+	}
+
+	public static final String OBJECT_NAME = "de.grajcar.aptlombokdemo:type=HelperMetrics";
+
+	private HelperMetrics(String typeName, String feature) {
+		this.typeName = typeName;
+		this.feature = feature;
+	}
+
+	/** Return the metrics for the given type and feature, creating them if needed. This gets called by the generated helpers. */
+	public static HelperMetrics of(String typeName, String feature) {
+		return ALL.computeIfAbsent(typeName + "/" + feature, k -> new HelperMetrics(typeName, feature));
+	}
+
+	/** Return all metrics created so far. */
+	public static Collection<HelperMetrics> all() {
+		return Collections.unmodifiableCollection(ALL.values());
+	}
+
+	/** Count an invocation. */
+	public void record() {
+		invocations.increment();
+	}
+
+	/** Count an invocation producing the given number of characters. */
+	public void record(int chars) {
+		invocations.increment();
+		this.chars.add(chars);
+	}
+
+	public String typeName() {
+		return typeName;
+	}
+
+	public String feature() {
+		return feature;
+	}
+
+	public long invocations() {
+		return invocations.sum();
+	}
+
+	public long chars() {
+		return chars.sum();
+	}
+
+	@Override public String toString() {
+		return "HelperMetrics(" + typeName + "/" + feature + ", invocations=" + invocations() + ", chars=" + chars() + ")";
+	}
+
+	private static final ConcurrentMap<String, HelperMetrics> ALL = new ConcurrentHashMap<>();
+	static {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new Registry(), new ObjectName(OBJECT_NAME));
+		} catch (final JMException | SecurityException e) {
+			// Most probably registered already by another class loader. The metrics are still available via all().
+		}
+	}
+
+	private final String typeName;
+	private final String feature;
+	private final LongAdder invocations = new LongAdder();
+	private final LongAdder chars = new LongAdder();
+}
@@ -0,0 +1,83 @@
+package de.grajcar.aptlombokdemo;
+
+import java.util.Comparator;
+import java.util.function.Function;
+
+/**
+ * Finds the generated helpers for an arbitrary class, e.g., for log formatters or generic collection utilities.
+ *
+ * <p>With {@code -Aaptlombokdemo.index=true}, an index called {@code _<TopLevelName>_HelperIndex} gets generated into the package
+ * of every top-level type containing annotated types, which returns method references to the helpers, so that no reflection is needed for calling them.
+ * Without the index, no helpers get found.
+ * Only finding and instantiating the index uses reflection, which happens once per top-level type.
+ * The results get cached per class, so that a repeated lookup costs about as much as a field access.
+ *
+ * <p>The helpers get found only for the very class annotated, not for its subclasses, as they may have more members.
+ */
+public final class Helpers {
+	/** The interface implemented by the generated indexes. It's public only because of them, it's not meant to be used directly. */
+	public interface Index {
+		/** Return the {@code toString} helper for the given type, or null, if there's none. */
+		Function<?, String> toStringFor(Class<?> type);
+
+		/** Return the {@code compare} helper for the given type, or null, if there's none. */
+		Comparator<?> comparatorFor(Class<?> type);
+	}
+
+	private static final class Entry {
+		Entry(Function<?, String> toStringFunction, Comparator<?> comparator) {
+			this.toStringFunction = toStringFunction;
+			this.comparator = comparator;
+		}
+
+		final Function<?, String> toStringFunction;
+		final Comparator<?> comparator;
+	}
+
+	private Helpers() {
+	}
+
+	/** Return the function calling the generated {@code toString} helper for the given type, or null, if it's not annotated. */
+	@SuppressWarnings("unchecked")
+	public static <T> Function<T, String> toStringFor(Class<T> type) {
+		return (Function<T, String>) ENTRIES.get(type).toStringFunction;
+	}
+
+	/** Return the comparator calling the generated {@code compare} helper for the given type, or null, if it's not annotated. */
+	@SuppressWarnings("unchecked")
+	public static <T> Comparator<T> comparatorFor(Class<T> type) {
+		return (Comparator<T>) ENTRIES.get(type).comparator;
+	}
+
+	private static Class<?> topLevelClass(Class<?> type) {
+		Class<?> result = type;
+		while (result.getEnclosingClass() != null) result = result.getEnclosingClass();
+		return result;
+	}
+
+	private static final Entry NO_ENTRY = new Entry(null, null);
+
+	private static final ClassValue<Entry> ENTRIES = new ClassValue<Entry>() {
+		@Override protected Entry computeValue(Class<?> type) {
+			if (type.isArray() || type.isPrimitive()) return NO_ENTRY;
+			final Index index = INDEXES.get(topLevelClass(type));
+			return index == null ? NO_ENTRY : new Entry(index.toStringFor(type), index.comparatorFor(type));
+		}
+	};
+
+	/** The index for each top-level class, or null, if there's none. The name must match the one used by the processor. */
+	private static final ClassValue<Index> INDEXES = new ClassValue<Index>() {
+		@Override protected Index computeValue(Class<?> topLevelClass) {
+			final String className = topLevelClass.getName();
+			final String prefix = className.substring(0, className.lastIndexOf('.') + 1);
+			try {
+				final Class<?> indexClass = Class.forName(prefix + "_" + topLevelClass.getSimpleName() + "_HelperIndex", true, topLevelClass.getClassLoader());
+				return (Index) indexClass.getConstructor().newInstance();
+			} catch (final ClassNotFoundException e) {
+				return null;
+			} catch (final ReflectiveOperationException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+}
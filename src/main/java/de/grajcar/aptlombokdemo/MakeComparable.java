@@ -9,14 +9,14 @@ import java.lang.annotation.Target;
  * Generates an implementation for the {@code compareTo} method, consisting of comparing the values of relevant fields
  * as customized via {@link MakeComparable.Include} and {@link MakeComparable.Exclude}.
  */
-@Retention(RetentionPolicy.SOURCE)
+@Retention(RetentionPolicy.CLASS)
 @Target({ElementType.FIELD, ElementType.TYPE})
 public @interface MakeComparable {
 	/**
 	 * Exclude a field from appearing in {@link MakeComparable}.
 	 * When put on a class, exclude all its fields by default.
 	 */
-	@Retention(RetentionPolicy.SOURCE)
+	@Retention(RetentionPolicy.CLASS)
 	@Target({ElementType.FIELD, ElementType.TYPE})
 	public @interface Exclude {
 	}
@@ -24,10 +24,15 @@ public @interface MakeComparable {
 	/**
 	 * Include a field or (the result of) a no-args method in {@link MakeComparable}.
 	 *
-	 * // TODO allow one-arg non-static int-returning methods taking a parameter of self-type
-	 * // TODO allow two-args static int-returning methods taking two parameters of self-type
+	 * <p>A member comparing two instances itself gets called directly instead, which may be
+	 * <ul>
+	 * <li>an {@code int}-returning method taking an instance, like {@code compareTo},
+	 * <li>a static {@code int}-returning method taking two instances, like {@code compare},
+	 * <li>a static field of type {@code Comparator<? super T>}.
+	 * </ul>
+	 * Such members must not be private and they can't use {@link #nullsFirst()} or {@link #nullsLast()}, as they get the objects themselves.
 	 */
-	@Retention(RetentionPolicy.SOURCE)
+	@Retention(RetentionPolicy.CLASS)
 	@Target({ElementType.FIELD, ElementType.METHOD})
 	public @interface Include {
 		/** When true, then the reversed ordering gets used. */
@@ -39,12 +44,30 @@ public @interface MakeComparable {
 		 */
 		int rank() default 0;
 
+		/** When true, then null is smaller than everything else. Overrides the setting of {@link MakeComparable#nullsLast()}. */
 		boolean nullsFirst() default false;
 
+		/** When true, then null is greater than everything else. Overrides the setting of {@link MakeComparable#nullsFirst()}. */
 		boolean nullsLast() default false;
 	}
 
+	/**
+	 * When true, then null is smaller than everything else for all members, unless their {@link Include} says otherwise.
+	 * This is independent of {@link Include#reverse()}, so that nulls come first in both orderings.
+	 * Without this or {@link #nullsLast()}, comparing null with anything else throws.
+	 */
 	boolean nullsFirst() default false;
 
+	/** When true, then null is greater than everything else for all members, unless their {@link Include} says otherwise. */
 	boolean nullsLast() default false;
+
+	/**
+	 * Generate {@code sortKey(T)} packing the leading primitive or enum members into a {@code long} preserving the order,
+	 * and {@code sort(T[])} sorting by these keys using a radix sort and comparing only the objects with equal keys.
+	 * Packing stops at the first member of another type and at the first member exceeding 64 bits in total.
+	 * <strong>default: false</strong>
+	 *
+	 * @return Whether to generate the sort key and the sort method.
+	 */
+	boolean sortKey() default false;
 }
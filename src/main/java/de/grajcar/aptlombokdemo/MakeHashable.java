@@ -0,0 +1,42 @@
+package de.grajcar.aptlombokdemo;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Generates an implementation for the {@code equals} and {@code hashCode} methods, consisting of comparing and hashing the values
+ * of relevant fields as customized via {@link MakeHashable.Include} and {@link MakeHashable.Exclude}.
+ * The members get selected by the same rules as for {@link MakeComparable}, so that both can be kept consistent easily.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface MakeHashable {
+	/**
+	 * Exclude a field from appearing in {@link MakeHashable}.
+	 * When put on a class, exclude all its fields by default.
+	 */
+	@Retention(RetentionPolicy.CLASS)
+	@Target({ElementType.FIELD, ElementType.TYPE})
+	public @interface Exclude {
+	}
+
+	/**
+	 * Include a field or (the result of) a no-args method in {@link MakeHashable}.
+	 */
+	@Retention(RetentionPolicy.CLASS)
+	@Target({ElementType.FIELD, ElementType.METHOD})
+	public @interface Include {
+	}
+
+	/**
+	 * The name of a non-static {@code int} field used for caching the hash code, which makes only sense for immutable types.
+	 * The field gets excluded from {@code equals} and {@code hashCode} as well as from {@link ToString} and {@link MakeComparable}
+	 * and it should be transient.
+	 * <strong>default: no caching</strong>
+	 *
+	 * @return The name of the field caching the hash code, if any; otherwise the empty string.
+	 */
+	String cacheField() default "";
+}
@@ -9,14 +9,14 @@ import java.lang.annotation.Target;
  * Generates an implementation for the {@code toString} method inherited by all objects, consisting of printing the values of relevant fields
  * as customized via {@link ToString.Include} and {@link ToString.Exclude}.
  */
-@Retention(RetentionPolicy.SOURCE)
+@Retention(RetentionPolicy.CLASS)
 @Target(ElementType.TYPE)
 public @interface ToString {
 	/**
 	 * Exclude a field from appearing in {@link ToString}.
 	 * When put on a class, exclude all its fields by default.
 	 */
-	@Retention(RetentionPolicy.SOURCE)
+	@Retention(RetentionPolicy.CLASS)
 	@Target({ElementType.FIELD, ElementType.TYPE})
 	public @interface Exclude {
 	}
@@ -24,7 +24,7 @@ public @interface ToString {
 	/**
 	 * Include a field or (the result of) a no-args method in {@link ToString}.
 	 */
-	@Retention(RetentionPolicy.SOURCE)
+	@Retention(RetentionPolicy.CLASS)
 	@Target({ElementType.FIELD, ElementType.METHOD})
 	public @interface Include {
 		/**
@@ -59,4 +59,72 @@ public @interface ToString {
 	 * @return If {@code true}, always use direct field access instead of calling the getter method.
 	 */
 	boolean doNotUseGetters() default true; //TODO
+
+	/**
+	 * Show {@code byte[]} members as hexadecimal digits without any separators, e.g., {@code 0aff}, instead of like {@code [10, -1]}.
+	 * <strong>default: false</strong>
+	 *
+	 * @return Whether to show byte arrays in hexadecimal.
+	 */
+	boolean bytesAsHex() default false;
+
+	/**
+	 * Limit the number of characters produced for an object, not counting the {@code "..."} marking a truncated output.
+	 * The generated code stops appending members as soon as the limit gets exceeded,
+	 * and {@link CharSequence}, array, {@link java.util.Collection} and {@link java.util.Map} members get appended only as far as needed.
+	 * <strong>default: unlimited</strong>
+	 *
+	 * @return The maximum length of the output of a single object.
+	 */
+	int maxLength() default Integer.MAX_VALUE;
+
+	/**
+	 * Limit the number of elements shown for array, {@link java.util.Collection} and {@link java.util.Map} members, the rest gets replaced by {@code "..."}.
+	 * <strong>default: unlimited</strong>
+	 *
+	 * @return The maximum number of elements shown for a single member.
+	 */
+	int maxElements() default Integer.MAX_VALUE;
+
+	/**
+	 * Limit how deeply objects of the annotated type may be nested in each other's output, e.g., via a member or via the {@code toString}
+	 * of a collection. Deeper objects get shown as {@code "Name(...)"}, so that a cyclic graph can't overflow the stack.
+	 * The limit costs a {@link ThreadLocal} lookup per call, so it doesn't get enforced for types whose members can't lead back to them,
+	 * i.e., when all of them are primitives, boxed primitives, strings, enums or primitive arrays.
+	 * Use {@link Integer#MAX_VALUE} for no limit.
+	 * <strong>default: 8</strong>
+	 *
+	 * @return The maximum nesting depth, which must be at least 1.
+	 */
+	int maxDepth() default 8;
+
+	/**
+	 * Remember the string produced for an object, so that it doesn't have to be built again, which is correct for immutable types only.
+	 * All included fields should be final and of immutable types, and all included methods should always return the same.
+	 * The cache gets used by all overloads of {@code toString}, including when the object is nested in another one,
+	 * except when it's nested in an object of its own type, as the result may be truncated by {@link #maxDepth()} then.
+	 * The generated helper exposes the {@link ToStringCache} for monitoring its hits and misses.
+	 * <strong>default: false</strong>
+	 *
+	 * @return Whether to cache the results of {@code toString}.
+	 */
+	boolean cache() default false;
+
+	/**
+	 * The number of strings to be kept when {@link #cache()} is used.
+	 * <strong>default: 1024</strong>
+	 *
+	 * @return The maximum number of cached strings.
+	 */
+	int cacheSize() default 1024;
+
+	/**
+	 * Generate also {@code writeTo(object, ByteBuffer)}, which writes the same output directly to the buffer in UTF-8 using {@link ToStringUtf8}.
+	 * It returns false and leaves the buffer position unchanged when the output doesn't fit, so that the caller can retry with a bigger buffer.
+	 * When there are no limits, no cache and no array or nested {@link ToString} members, no intermediate string gets created.
+	 * <strong>default: false</strong>
+	 *
+	 * @return Whether to generate a method writing to a {@link java.nio.ByteBuffer}.
+	 */
+	boolean writeTo() default false;
 }
@@ -0,0 +1,67 @@
+package de.grajcar.aptlombokdemo;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of the strings produced by a helper generated for {@link ToString#cache()}.
+ *
+ * <p>It's direct-mapped by the identity hash code, so that a lookup costs about as much as an array access and never allocates.
+ * A new entry simply replaces whatever occupied its slot. The objects are referenced weakly, so caching never keeps them alive.
+ * Concurrent updates may lose an entry, but never lead to a wrong string being returned.
+ */
+public final class ToStringCache {
+	private static final class Entry extends WeakReference<Object> {
+		Entry(Object object, String value) {
+			super(object);
+			this.value = value;
+		}
+
+		final String value;
+	}
+
+	/** Create a cache holding at most the given number of strings, rounded up to a power of two. */
+	public ToStringCache(int size) {
+		final int capacity = size <= 1 ? 1 : Integer.highestOneBit(Math.min(size - 1, 1 << 29)) << 1;
+		table = new Entry[capacity];
+		mask = capacity - 1;
+	}
+
+	/** Return the string cached for the given object, or null, if there's none. */
+	public String get(Object object) {
+		// The fields of the entry are final, so a racy read of the slot sees it completely initialized.
+		final Entry entry = table[index(object)];
+		if (entry != null && object != null && entry.get() == object) {
+			hits.increment();
+			return entry.value;
+		}
+		misses.increment();
+		return null;
+	}
+
+	public void put(Object object, String value) {
+		table[index(object)] = new Entry(object, value);
+	}
+
+	private int index(Object object) {
+		final int hash = System.identityHashCode(object);
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	public long hits() {
+		return hits.sum();
+	}
+
+	public long misses() {
+		return misses.sum();
+	}
+
+	@Override public String toString() {
+		return "ToStringCache(capacity=" + table.length + ", hits=" + hits() + ", misses=" + misses() + ")";
+	}
+
+	private final Entry[] table;
+	private final int mask;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+}
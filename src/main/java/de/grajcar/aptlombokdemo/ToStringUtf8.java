@@ -0,0 +1,135 @@
+package de.grajcar.aptlombokdemo;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the parts of the output of a helper generated for {@link ToString#writeTo()} to a {@link ByteBuffer} in UTF-8.
+ *
+ * <p>All methods produce the same bytes as {@code String.valueOf(value).getBytes(StandardCharsets.UTF_8)}, including replacing
+ * unpaired surrogates by {@code '?'}, but integral numbers and strings get encoded without creating any temporary objects.
+ * When the value doesn't fit, a {@link BufferOverflowException} gets thrown and the content of the buffer is unspecified,
+ * so the generated {@code writeTo} resets its position.
+ */
+public final class ToStringUtf8 {
+	private ToStringUtf8() {
+	}
+
+	/** Put a string known to consist of ASCII characters only, like the names and separators generated by the processor. */
+	public static void putAscii(ByteBuffer buffer, String value) {
+		final int length = value.length();
+		if (buffer.remaining() < length) throw new BufferOverflowException();
+		final int start = buffer.position();
+		if (buffer.hasArray()) {
+			final byte[] array = buffer.array();
+			final int offset = buffer.arrayOffset() + start;
+			for (int i=0; i<length; ++i) array[offset + i] = (byte) value.charAt(i);
+		} else {
+			for (int i=0; i<length; ++i) buffer.put(start + i, (byte) value.charAt(i));
+		}
+		buffer.position(start + length);
+	}
+
+	public static void put(ByteBuffer buffer, boolean value) {
+		putAscii(buffer, value ? "true" : "false");
+	}
+
+	public static void put(ByteBuffer buffer, char value) {
+		if (value < 0x80) {
+			buffer.put((byte) value);
+		} else if (value < 0x800) {
+			buffer.put((byte) (0xC0 | value >> 6)).put((byte) (0x80 | value & 0x3F));
+		} else if (Character.isSurrogate(value)) {
+			buffer.put((byte) '?');
+		} else {
+			buffer.put((byte) (0xE0 | value >> 12)).put((byte) (0x80 | value >> 6 & 0x3F)).put((byte) (0x80 | value & 0x3F));
+		}
+	}
+
+	/** Put the decimal digits directly, as {@link Integer#toString(int)} would produce them. */
+	public static void put(ByteBuffer buffer, int value) {
+		if (value == Integer.MIN_VALUE) {
+			putAscii(buffer, "-2147483648");
+			return;
+		}
+		final boolean isNegative = value < 0;
+		int rest = isNegative ? -value : value;
+		int length = isNegative ? 2 : 1;
+		for (int x=rest; x>=10; x/=10) ++length;
+		final int start = reserve(buffer, length, isNegative);
+		for (int i=start+length-1; i>=start+(isNegative ? 1 : 0); --i, rest/=10) buffer.put(i, (byte) ('0' + rest % 10));
+	}
+
+	/** Put the decimal digits directly, as {@link Long#toString(long)} would produce them, using the cheaper int arithmetic when possible. */
+	public static void put(ByteBuffer buffer, long value) {
+		if (value == (int) value) {
+			put(buffer, (int) value);
+			return;
+		}
+		if (value == Long.MIN_VALUE) {
+			putAscii(buffer, "-9223372036854775808");
+			return;
+		}
+		final boolean isNegative = value < 0;
+		long rest = isNegative ? -value : value;
+		int length = isNegative ? 2 : 1;
+		for (long x=rest; x>=10; x/=10) ++length;
+		final int start = reserve(buffer, length, isNegative);
+		for (int i=start+length-1; i>=start+(isNegative ? 1 : 0); --i, rest/=10) buffer.put(i, (byte) ('0' + rest % 10));
+	}
+
+	/** Advance the position past the given number of bytes, putting the sign, if needed, and return the original position. */
+	private static int reserve(ByteBuffer buffer, int length, boolean isNegative) {
+		if (buffer.remaining() < length) throw new BufferOverflowException();
+		final int start = buffer.position();
+		if (isNegative) buffer.put(start, (byte) '-');
+		buffer.position(start + length);
+		return start;
+	}
+
+	/** Put the shortest representation, which is too complicated to be produced directly, but it's always ASCII. */
+	public static void put(ByteBuffer buffer, float value) {
+		putAscii(buffer, Float.toString(value));
+	}
+
+	public static void put(ByteBuffer buffer, double value) {
+		putAscii(buffer, Double.toString(value));
+	}
+
+	public static void put(ByteBuffer buffer, CharSequence value) {
+		if (value == null) {
+			putAscii(buffer, "null");
+			return;
+		}
+		final int length = value.length();
+		int i = 0;
+		if (buffer.hasArray()) {
+			// Most strings are ASCII, so they can be copied until the first other char without any checks per byte.
+			final byte[] array = buffer.array();
+			final int offset = buffer.arrayOffset() + buffer.position();
+			final int end = Math.min(length, buffer.remaining());
+			while (i < end) {
+				final char c = value.charAt(i);
+				if (c >= 0x80) break;
+				array[offset + i++] = (byte) c;
+			}
+			buffer.position(buffer.position() + i);
+		}
+		for (; i<length; ++i) {
+			final char c = value.charAt(i);
+			if (Character.isHighSurrogate(c) && i+1 < length && Character.isLowSurrogate(value.charAt(i+1))) {
+				final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer.put((byte) (0xF0 | codePoint >> 18))
+					.put((byte) (0x80 | codePoint >> 12 & 0x3F))
+					.put((byte) (0x80 | codePoint >> 6 & 0x3F))
+					.put((byte) (0x80 | codePoint & 0x3F));
+			} else {
+				put(buffer, c);
+			}
+		}
+	}
+
+	public static void put(ByteBuffer buffer, Object value) {
+		put(buffer, String.valueOf(value));
+	}
+}
@@ -1,24 +1,344 @@
 package de.grajcar.aptlombokdemo.impl;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
 
 import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
-import javax.annotation.processing.SupportedSourceVersion;
+import javax.annotation.processing.SupportedOptions;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
 
 import de.grajcar.aptlombokdemo.MakeComparable;
+import de.grajcar.aptlombokdemo.MakeHashable;
 import de.grajcar.aptlombokdemo.ToString;
 
-@SupportedAnnotationTypes("de.grajcar.aptlombokdemo.ToString")
-@SupportedSourceVersion(SourceVersion.RELEASE_8)
+// The nested annotations get claimed, too, as otherwise javac warns about them with -Xlint:processing.
+@SupportedAnnotationTypes({
+	"de.grajcar.aptlombokdemo.ToString",
+	"de.grajcar.aptlombokdemo.ToString.Include",
+	"de.grajcar.aptlombokdemo.ToString.Exclude",
+	"de.grajcar.aptlombokdemo.MakeComparable",
+	"de.grajcar.aptlombokdemo.MakeComparable.Include",
+	"de.grajcar.aptlombokdemo.MakeComparable.Exclude",
+	"de.grajcar.aptlombokdemo.MakeHashable",
+	"de.grajcar.aptlombokdemo.MakeHashable.Include",
+	"de.grajcar.aptlombokdemo.MakeHashable.Exclude",
+})
+@SupportedOptions({
+	DemoProcessor.AGGREGATE_OPTION, DemoProcessor.PARALLELISM_OPTION, DemoProcessor.STATS_OPTION, DemoProcessor.METRICS_OPTION, DemoProcessor.INDEX_OPTION,
+})
 public class DemoProcessor extends AbstractProcessor {
+	/**
+	 * When set to true, then instead of generating a helper per type and feature, a single helper per package gets generated.
+	 * It's called {@value #AGGREGATED_CLASS_NAME} and contains the static methods for all annotated types of the package.
+	 */
+	static final String AGGREGATE_OPTION = "aptlombokdemo.aggregate";
+
+	static final String AGGREGATED_CLASS_NAME = "_PackageHelper";
+
+	/**
+	 * The number of threads used for rendering the generated sources, defaults to 1, meaning everything happens on the javac thread.
+	 * Zero stands for the number of available processors.
+	 * Only rendering runs in parallel, the snapshots get taken and the files get written on the javac thread in the same order as usual,
+	 * so that the output doesn't depend on the parallelism.
+	 */
+	static final String PARALLELISM_OPTION = "aptlombokdemo.parallelism";
+
+	/**
+	 * When set, then timings and counts for each round, type and phase get written as CSV to the file given as the value,
+	 * and a summary gets reported as a note.
+	 */
+	static final String STATS_OPTION = "aptlombokdemo.stats";
+
+	/**
+	 * When set to true, then the generated {@code toString} and {@code compare} count their invocations and the characters produced
+	 * in a {@link de.grajcar.aptlombokdemo.HelperMetrics} per type. Otherwise, the generated code is the same as without this option.
+	 */
+	static final String METRICS_OPTION = "aptlombokdemo.metrics";
+
+	/**
+	 * When set to true, then an index gets generated for every top-level type containing annotated types,
+	 * so that {@link de.grajcar.aptlombokdemo.Helpers} can find their helpers. Otherwise, no index gets generated,
+	 * as most projects don't need it and it's another class per top-level type, even when aggregating.
+	 */
+	static final String INDEX_OPTION = "aptlombokdemo.index";
+
+	/**
+	 * Gradle treats the processor as incremental, when it declares itself as "dynamic" and adds one of these options.
+	 * Without aggregation, every generated file originates from a single type, so the processor is isolating.
+	 */
+	private static final String GRADLE_ISOLATING = "org.gradle.annotation.processing.isolating";
+	private static final String GRADLE_AGGREGATING = "org.gradle.annotation.processing.aggregating";
+
+	/**
+	 * A source file to be generated, containing the helpers of one or more types.
+	 * Rendering may run on any thread, as it uses only the snapshots taken before, but writing must run on the javac thread.
+	 */
+	private final class GeneratedFile {
+		GeneratedFile(String packageName, String className, List<TypeProcessor> processors, Stats.Entry writeEntry) {
+			this.packageName = packageName;
+			this.className = className;
+			this.processors = processors;
+			this.writeEntry = writeEntry;
+			renderEntries = stats == null ? null : processors.stream().map(DemoProcessor.this::statsEntry).collect(Collectors.toList());
+		}
+
+		SourceBuilder render(SourceBuilder source) {
+			source.reset(packageName);
+			source.append("public class ", className, " {");
+			for (int i=0; i<processors.size(); ++i) {
+				if (i>0) source.append();
+				if (renderEntries == null) {
+					processors.get(i).render(source);
+				} else {
+					final long start = System.nanoTime();
+					processors.get(i).render(source);
+					renderEntries.get(i).renderNanos = System.nanoTime() - start;
+				}
+			}
+			source.append("}");
+			return source;
+		}
+
+		String qualifiedName() {
+			return packageName.isEmpty() ? className : packageName + "." + className;
+		}
+
+		void write(SourceBuilder source) {
+			final Element[] originatingElements = processors.stream().map(p -> p.typeElement).distinct().toArray(Element[]::new);
+			if (writeEntry == null) {
+				source.write(processingEnv, qualifiedName(), originatingElements);
+				return;
+			}
+			final long start = System.nanoTime();
+			source.write(processingEnv, qualifiedName(), originatingElements);
+			writeEntry.writeNanos = System.nanoTime() - start;
+			writeEntry.lines = source.lineCount();
+			writeEntry.bytes = source.byteCount();
+		}
+
+		private final String packageName;
+		private final String className;
+		private final List<TypeProcessor> processors;
+		/** The entries to be filled, or null, if no stats get recorded. */
+		private final Stats.Entry writeEntry;
+		private final List<Stats.Entry> renderEntries;
+	}
+
+	/** Support whatever the compiler supports, as the generated code depends on the source version only where it says so. */
+	@Override public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override public synchronized void init(ProcessingEnvironment processingEnv) {
+		super.init(processingEnv);
+		stats = processingEnv.getOptions().containsKey(STATS_OPTION) ? new Stats() : null;
+	}
+
+	@Override public Set<String> getSupportedOptions() {
+		final Set<String> result = new HashSet<>(super.getSupportedOptions());
+		result.add(isInitialized() && isAggregated() ? GRADLE_AGGREGATING : GRADLE_ISOLATING);
+		return result;
+	}
+
 	@Override public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
-		for (final Element e : roundEnv.getElementsAnnotatedWith(ToString.class)) new ToStringProcessor(processingEnv, (TypeElement) e).process();
-		for (final Element e : roundEnv.getElementsAnnotatedWith(MakeComparable.class)) new MakeComparableProcessor(processingEnv, (TypeElement) e).process();
+		if (stats != null) stats.startRound();
+		final Map<TypeElement, TypeModel> models = new HashMap<>();
+		final List<TypeProcessor> processors = new ArrayList<>();
+		for (final Element e : roundEnv.getElementsAnnotatedWith(ToString.class)) processors.add(new ToStringProcessor(processingEnv, model(models, e)));
+		for (final Element e : roundEnv.getElementsAnnotatedWith(MakeComparable.class)) processors.add(new MakeComparableProcessor(processingEnv, model(models, e)));
+		for (final Element e : roundEnv.getElementsAnnotatedWith(MakeHashable.class)) processors.add(new MakeHashableProcessor(processingEnv, model(models, e)));
+		for (final TypeProcessor p : processors) {
+			final Stats.Entry entry = statsEntry(p);
+			if (entry == null) {
+				p.collect();
+				continue;
+			}
+			final long start = System.nanoTime();
+			p.collect();
+			entry.collectNanos = System.nanoTime() - start;
+			entry.members = p.memberCount();
+		}
+		final List<GeneratedFile> files = isAggregated() ? aggregatedFiles(processors) : standaloneFiles(processors);
+		final Map<String, String> roundHelpers = new HashMap<>();
+		for (final GeneratedFile f : files) {
+			for (final TypeProcessor p : f.processors) roundHelpers.put(TypeProcessor.helperKey(p.model.qualifiedName, p.feature()), f.qualifiedName());
+		}
+		processors.forEach(p -> p.resolve(roundHelpers));
+		renderAndWrite(files);
+		if (Boolean.parseBoolean(processingEnv.getOptions().get(INDEX_OPTION))) writeIndexes(files);
+		if (stats != null) {
+			stats.endRound();
+			statsEntries.clear();
+		}
+		if (roundEnv.processingOver()) {
+			if (pool != null) pool.shutdown();
+			reportStats();
+		}
 		return true;
 	}
+
+	/** Return the model for the type, so that the snapshot gets taken only once per round even when the type has multiple features. */
+	private TypeModel model(Map<TypeElement, TypeModel> models, Element element) {
+		return models.computeIfAbsent((TypeElement) element, e -> {
+			if (stats == null) return new TypeModel(processingEnv, e);
+			final long start = System.nanoTime();
+			final TypeModel result = new TypeModel(processingEnv, e);
+			stats.newEntry(result.qualifiedName, "model").modelNanos = System.nanoTime() - start;
+			return result;
+		});
+	}
+
+	/** Return the entry of the processor for the current round, or null, if no stats get recorded. */
+	private Stats.Entry statsEntry(TypeProcessor processor) {
+		if (stats == null) return null;
+		return statsEntries.computeIfAbsent(processor, p -> stats.newEntry(p.model.qualifiedName, p.feature()));
+	}
+
+	/**
+	 * Render all files, possibly in parallel, and write them in the given order.
+	 * A file gets written as soon as it and all its predecessors are rendered, and its buffers get reused for rendering another file.
+	 */
+	private void renderAndWrite(List<GeneratedFile> files) {
+		if (parallelism() <= 1) {
+			final SourceBuilder source = takeSource();
+			for (final GeneratedFile f : files) f.write(f.render(source));
+			spareSources.add(source);
+			return;
+		}
+		if (pool == null) pool = new ForkJoinPool(parallelism());
+		final List<ForkJoinTask<SourceBuilder>> tasks = new ArrayList<>();
+		for (final GeneratedFile f : files) tasks.add(pool.submit(() -> f.render(takeSource())));
+		for (int i=0; i<files.size(); ++i) {
+			final SourceBuilder source = tasks.get(i).join();
+			files.get(i).write(source);
+			spareSources.add(source);
+		}
+	}
+
+	/** Write the indexes used by {@link de.grajcar.aptlombokdemo.Helpers}, one per top-level type, as they're tiny, on the javac thread. */
+	private void writeIndexes(List<GeneratedFile> files) {
+		final Map<String, HelperIndex> indexes = new TreeMap<>();
+		for (final GeneratedFile f : files) {
+			for (final TypeProcessor p : f.processors) {
+				if (!HelperIndex.isIndexed(p)) continue;
+				indexes.computeIfAbsent(p.packageName() + "." + p.model.topLevelName, k -> new HelperIndex(p.packageName(), p.model.topLevelName))
+						.add(p, f.qualifiedName());
+			}
+		}
+		final SourceBuilder source = takeSource();
+		for (final HelperIndex index : indexes.values()) {
+			if (stats == null) {
+				index.render(source);
+				source.write(processingEnv, index.qualifiedName(), index.originatingElements());
+				continue;
+			}
+			final Stats.Entry entry = stats.newEntry(index.qualifiedName(), "index");
+			final long start = System.nanoTime();
+			index.render(source);
+			entry.renderNanos = System.nanoTime() - start;
+			source.write(processingEnv, index.qualifiedName(), index.originatingElements());
+			entry.writeNanos = System.nanoTime() - start - entry.renderNanos;
+			entry.lines = source.lineCount();
+			entry.bytes = source.byteCount();
+		}
+		spareSources.add(source);
+	}
+
+	private SourceBuilder takeSource() {
+		final SourceBuilder result = spareSources.poll();
+		return result != null ? result : new SourceBuilder();
+	}
+
+	private int parallelism() {
+		final String value = processingEnv.getOptions().get(PARALLELISM_OPTION);
+		if (value == null) return 1;
+		try {
+			final int result = Integer.parseInt(value.trim());
+			if (result >= 0) return result == 0 ? Runtime.getRuntime().availableProcessors() : result;
+		} catch (final NumberFormatException e) {
+			// Reported below.
+		}
+		if (!isParallelismReported) {
+			isParallelismReported = true;
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Ignoring invalid " + PARALLELISM_OPTION + "=" + value);
+		}
+		return 1;
+	}
+
+	private List<GeneratedFile> standaloneFiles(List<TypeProcessor> processors) {
+		final List<GeneratedFile> result = new ArrayList<>();
+		for (final TypeProcessor p : processors) {
+			final String qualifiedName = p.generatedClassName();
+			final String className = qualifiedName.substring(qualifiedName.lastIndexOf('.') + 1);
+			result.add(new GeneratedFile(p.packageName(), className, Collections.singletonList(p), statsEntry(p)));
+		}
+		return result;
+	}
+
+	private void reportStats() {
+		if (stats == null) return;
+		final String fileName = processingEnv.getOptions().get(STATS_OPTION);
+		try {
+			stats.writeReport(Paths.get(fileName));
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, stats.summary() + "; report written to " + fileName);
+		} catch (final IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Writing " + fileName + " failed: " + e);
+		}
+	}
+
+	private boolean isAggregated() {
+		return Boolean.parseBoolean(processingEnv.getOptions().get(AGGREGATE_OPTION));
+	}
+
+	private List<GeneratedFile> aggregatedFiles(List<TypeProcessor> processors) {
+		final Map<String, List<TypeProcessor>> processorsByPackage = new TreeMap<>();
+		for (final TypeProcessor p : processors) processorsByPackage.computeIfAbsent(p.packageName(), k -> new ArrayList<>()).add(p);
+		final List<GeneratedFile> result = new ArrayList<>();
+		processorsByPackage.forEach((packageName, packageProcessors) -> {
+			// A package may get new annotated types in a later round, but a class can't be generated twice.
+			final int count = generatedPackageCounts.merge(packageName, 1, Integer::sum);
+			final String className = aggregatedClassName(count);
+			Stats.Entry entry = null;
+			if (stats != null) {
+				entry = stats.newEntry(packageName.isEmpty() ? className : packageName + "." + className, "aggregated");
+				entry.members = packageProcessors.stream().mapToInt(TypeProcessor::memberCount).sum();
+			}
+			result.add(new GeneratedFile(packageName, className, packageProcessors, entry));
+		});
+		return result;
+	}
+
+	/** Return the simple name of the aggregated helper generated for a package for the given time, counting from one. */
+	static String aggregatedClassName(int count) {
+		return AGGREGATED_CLASS_NAME + (count==1 ? "" : "_" + count);
+	}
+
+	private final Map<String, Integer> generatedPackageCounts = new HashMap<>();
+	/** The stats, or null, if {@link #STATS_OPTION} isn't given, so that nothing gets recorded or timed. */
+	private Stats stats;
+	/** Reused for all generated files, so that their buffers don't have to grow again and again. */
+	private final Queue<SourceBuilder> spareSources = new ConcurrentLinkedQueue<>();
+	private ForkJoinPool pool;
+	private boolean isParallelismReported;
+	private final Map<TypeProcessor, Stats.Entry> statsEntries = new IdentityHashMap<>();
 }
@@ -0,0 +1,77 @@
+package de.grajcar.aptlombokdemo.impl;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+import javax.lang.model.element.Element;
+
+import de.grajcar.aptlombokdemo.Helpers;
+
+/**
+ * The index of the helpers of all annotated types within a single top-level type, letting {@link Helpers} find them at runtime.
+ * It returns method references, so that the helpers get called without reflection, each via its own lambda class.
+ * All types nested in a top-level type get processed in the same round, so every index gets generated only once,
+ * and it originates from a single source file, as needed by incremental builds.
+ */
+final class HelperIndex {
+	private static final class Helper {
+		Helper(TypeProcessor processor, String className) {
+			this.processor = processor;
+			this.className = className;
+		}
+
+		final TypeProcessor processor;
+		final String className;
+	}
+
+	HelperIndex(String packageName, String topLevelName) {
+		this.packageName = packageName;
+		// The name must match the one used by Helpers.
+		className = "_" + topLevelName + "_HelperIndex";
+	}
+
+	/** Return whether {@link Helpers} supports the feature of the processor. */
+	static boolean isIndexed(TypeProcessor processor) {
+		return processor instanceof ToStringProcessor || processor instanceof MakeComparableProcessor;
+	}
+
+	/** Add the processor, whose helpers were generated into the class of the given fully qualified name. */
+	void add(TypeProcessor processor, String helperClassName) {
+		helpers.add(new Helper(processor, helperClassName));
+	}
+
+	String qualifiedName() {
+		return packageName.isEmpty() ? className : packageName + "." + className;
+	}
+
+	Element[] originatingElements() {
+		return helpers.stream().map(h -> h.processor.typeElement).distinct().toArray(Element[]::new);
+	}
+
+	void render(SourceBuilder source) {
+		source.reset(packageName);
+		source.append("public class ", className, " implements ", Helpers.Index.class.getCanonicalName(), " {");
+		appendLookup(source, ToStringProcessor.class, "toStringFor", Function.class.getName() + "<%s, " + String.class.getName() + ">", "toString");
+		source.append();
+		appendLookup(source, MakeComparableProcessor.class, "comparatorFor", Comparator.class.getName() + "<%s>", "compare");
+		source.append("}");
+	}
+
+	/** Generate a method returning the helper method of the given feature for the type given as argument, dispatched by identity. */
+	private void appendLookup(SourceBuilder source, Class<? extends TypeProcessor> feature, String name, String typeFormat, String helperMethod) {
+		source.append("@Override public ", String.format(typeFormat, "?"), " ", name, "(", Class.class, "<?> type) {");
+		for (final Helper h : helpers) {
+			if (!feature.isInstance(h.processor)) continue;
+			final String typeFqn = h.processor.model.qualifiedName;
+			source.append("if (type == ", typeFqn, ".class) return (", String.format(typeFormat, typeFqn), ") ", h.className, "::", helperMethod, ";");
+		}
+		source.append("return null;");
+		source.append("}");
+	}
+
+	private final String packageName;
+	private final String className;
+	private final List<Helper> helpers = new ArrayList<>();
+}
@@ -1,163 +1,345 @@
 package de.grajcar.aptlombokdemo.impl;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.stream.Collectors;
 
 import javax.annotation.processing.ProcessingEnvironment;
-import javax.lang.model.element.Element;
-import javax.lang.model.element.ExecutableElement;
-import javax.lang.model.element.Modifier;
-import javax.lang.model.element.TypeElement;
-import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
 
 import de.grajcar.aptlombokdemo.MakeComparable;
 import de.grajcar.aptlombokdemo.MakeComparable.Include;
+import de.grajcar.aptlombokdemo.impl.TypeModel.Member;
 
 public class MakeComparableProcessor extends TypeProcessor {
-	MakeComparableProcessor(ProcessingEnvironment processingEnv, TypeElement typeElement) {
-		super(processingEnv, typeElement);
-		excludeByDefault = typeElement.getAnnotation(MakeComparable.Exclude.class) != null;
-		makeComparableAnn = typeElement.getAnnotation(MakeComparable.class);
-		if (makeComparableAnn.nullsFirst()) raiseWarning(typeElement, "nullsFirst is not implemented"); //TODO
-		if (makeComparableAnn.nullsLast()) raiseWarning(typeElement, "nullsLast is not implemented"); //TODO
+	MakeComparableProcessor(ProcessingEnvironment processingEnv, TypeModel model) {
+		super(processingEnv, model);
+		excludeByDefault = model.getAnnotation(MakeComparable.Exclude.class) != null;
+		makeComparableAnn = model.getAnnotation(MakeComparable.class);
+		if (makeComparableAnn.nullsFirst() && makeComparableAnn.nullsLast()) {
+			raiseError(typeElement, "Combining nullsFirst and nullsLast is contradictory.");
+		}
 	}
 
-	@Override protected List<Element> collectElements() {
-		return typeElement.getEnclosedElements().stream().filter(this::accept).sorted(Comparator.comparingInt(this::getRank)).collect(Collectors.toList());
+	@Override protected List<Member> collectMembers() {
+		final List<Member> result = model.members.stream()
+				.filter(this::accept)
+				.sorted(Comparator.comparingInt(this::getRank))
+				.collect(Collectors.toList());
+		if (makeComparableAnn.sortKey()) {
+			int bits = 0;
+			while (packedCount < result.size() && bits + keyBits(result.get(packedCount)) <= Long.SIZE && keyBits(result.get(packedCount)) > 0) {
+				bits += keyBits(result.get(packedCount++));
+			}
+			if (packedCount == 0) raiseWarning(typeElement, "No sortKey gets generated as the first member is neither primitive nor an enum.");
+		}
+		return result;
 	}
 
-	private int getRank(Element element) {
-		final Include includeAnn = element.getAnnotation(MakeComparable.Include.class);
+	private int getRank(Member member) {
+		final Include includeAnn = member.getAnnotation(MakeComparable.Include.class);
 		return includeAnn==null ? 0 : includeAnn.rank();
 	}
 
-	private boolean accept(Element element) {
-		final MakeComparable.Exclude excludeAnn = element.getAnnotation(MakeComparable.Exclude.class);
-		final MakeComparable.Include includeAnn = element.getAnnotation(MakeComparable.Include.class);
-		return accept(element, excludeAnn, includeAnn);
+	private boolean accept(Member member) {
+		final MakeComparable.Exclude excludeAnn = member.getAnnotation(MakeComparable.Exclude.class);
+		final MakeComparable.Include includeAnn = member.getAnnotation(MakeComparable.Include.class);
+		return accept(member, excludeAnn, includeAnn);
 	}
 
-	private boolean accept(Element element, MakeComparable.Exclude excludeAnn, MakeComparable.Include includeAnn) {
+	private boolean accept(Member member, MakeComparable.Exclude excludeAnn, MakeComparable.Include includeAnn) {
+		if (isHashCodeCache(member)) {
+			if (includeAnn != null) raiseWarning(member.element, "The field caching the hash code doesn't get included, as it changes when hashing.");
+			return false;
+		}
 		if (includeAnn != null) {
-			if (includeAnn.nullsFirst()) raiseWarning(typeElement, "nullsFirst is not implemented"); //TODO
-			if (includeAnn.nullsLast()) raiseWarning(typeElement, "nullsLast is not implemented"); //TODO
+			if (includeAnn.nullsFirst() && includeAnn.nullsLast()) raiseError(member.element, "Combining nullsFirst and nullsLast is contradictory.");
+			if ((includeAnn.nullsFirst() || includeAnn.nullsLast()) && member.typeKind.isPrimitive()) {
+				raiseWarning(member.element, "Needless nullsFirst or nullsLast on a primitive member");
+			}
 		}
 		if (excludeAnn!=null || includeAnn!=null) {
-			final String errorMessage = errorMessageIfAnnotated(element);
+			final String errorMessage = errorMessageIfAnnotated(member);
 			if (!errorMessage.isEmpty()) {
-				raiseError(element, errorMessage);
+				raiseError(member.element, errorMessage);
 				return false;
 			}
 		}
 		if (excludeAnn != null) {
-			if (includeAnn != null) raiseError(element, "Combining Include and Exclude on a single element is contradictory.");
+			if (includeAnn != null) raiseError(member.element, "Combining Include and Exclude on a single element is contradictory.");
 			return false;
 		}
-		final boolean includedWhenUnanotated = !excludeByDefault && element instanceof VariableElement;
+		final boolean includedWhenUnanotated = !excludeByDefault && member.isField && !member.isStatic;
 
-		if (includeAnn == null) return includedWhenUnanotated;
+		if (includeAnn == null) return includedWhenUnanotated && acceptType(member);
+		if (isComparisonStep(member)) {
+			// The step gets the objects themselves, which are never null.
+			if (includeAnn.nullsFirst() || includeAnn.nullsLast()) raiseError(member.element, "nullsFirst and nullsLast don't apply to a comparison method or comparator.");
+			return true;
+		}
+
+		if (includedWhenUnanotated && includeAnn.rank()==0 && includeAnn.reverse()==false && !includeAnn.nullsFirst() && !includeAnn.nullsLast()) raiseWarning(member.element, "Needless @MakeComparable.Include");
+		return acceptType(member);
+	}
 
-		if (includedWhenUnanotated && includeAnn.rank()==0 && includeAnn.reverse()==false) raiseWarning(element, "Needless @MakeComparable.Include");
-		return true;
+	private boolean acceptType(Member member) {
+		if (member.typeKind.isPrimitive() || member.isEnum || member.isComparable) return true;
+		raiseError(member.element, "MakeComparable doesn't work with a member of type " + member.type + " as it's neither primitive nor Comparable.");
+		return false;
 	}
 
-	private String errorMessageIfAnnotated(Element element) {
-		if (element.getModifiers().contains(Modifier.STATIC)) return "MakeComparable doesn't work with a static element.";
-		if (element instanceof VariableElement) return "";
-		if (element instanceof ExecutableElement) {
-			final ExecutableElement executableElement = (ExecutableElement) element;
-			if (!executableElement.getParameters().isEmpty()) return "MakeComparable doesn't work with a method with arguments.";
+	private String errorMessageIfAnnotated(Member member) {
+		if (isComparisonStep(member)) {
+			if (member.isPrivate) return "MakeComparable doesn't work with a private comparison method or comparator.";
+			if (member.hasThrownTypes) return "MakeComparable doesn't work with a comparison method throwing checked exceptions.";
+			return "";
+		}
+		if (member.isStatic) return "MakeComparable doesn't work with a static element other than a comparison method or comparator.";
+		if (member.isField) return "";
+		if (member.isMethod) {
+			if (member.hasParameters) return "MakeComparable doesn't work with a method with arguments other than a comparison method.";
 			return "";
 		}
 		return "Include and Exclude on this elements is forbidden.";
 	}
 
-	@Override protected String generatedClassName() {
-		return packageName() + "._" + saneTypeName().replace(".", "_") + "_MakeComparableHelper";
+	/**
+	 * Return whether the member compares two instances itself, which is the case for an {@code int} method taking one instance
+	 * (or two, when static) and for a static {@link Comparator} applicable to the type.
+	 */
+	private boolean isComparisonStep(Member member) {
+		if (member.isMethod) {
+			return member.typeKind == TypeKind.INT && member.isTakingSelfType && member.parameterCount == (member.isStatic ? 2 : 1);
+		}
+		return member.isField && member.isStatic && member.isSelfComparator;
 	}
 
-	@Override protected void intro(List<Element> elements) {
-		append("public class ", generatedClassName().replaceAll(".*\\.", ""), " {");
-		append("public static int compare(", typeElement.getQualifiedName(), " first, ", typeElement.getQualifiedName(), " second) {");
+	@Override protected String feature() {
+		return "MakeComparable";
+	}
+
+	@Override protected void intro(List<Member> members) {
+		append("@", SuppressWarnings.class, "({\"rawtypes\", \"unchecked\"})");
+		append("public static int compare(", model.qualifiedName, " first, ", model.qualifiedName, " second) {");
+		if (isMetered()) append(metrics(), ".record();");
 		append("int result = 0;");
 	}
 
-	@Override protected void outtro(List<Element> elements) {
+	@Override protected void outtro(List<Member> members) {
 		append("return result;");
 		append("}");
 
-		final String typeFqn = typeElement.getQualifiedName().toString();
-
-		if (elements.stream().anyMatch(VariableElement.class::isInstance)) {
-			append();
-			append("private static ", Object.class, " getFieldValue(", String.class, " name, ", typeFqn, " object) {");
-			append("try {");
-			append(Field.class, " f = ", typeFqn, ".class.getDeclaredField(name);");
-			append("f.setAccessible(true);");
-			append("return f.get(object);");
-			append("} catch (", ReflectiveOperationException.class, " e) {");
-			append("throw new ", RuntimeException.class, "(e);");
-			append("}");
-			append("}");
-
-			append();
-			append("private static int compareField(", String.class, " name, ", typeFqn, " first, ", typeFqn, " second) {");
-			append("return compareValue(getFieldValue(name, first), getFieldValue(name, second));");
-			append("}");
+		if (packedCount > 0) {
+			appendSortKey(members.subList(0, packedCount));
+			appendSort(packedCount == members.size());
 		}
+		appendAccessors(members);
+		if (isMetered()) appendMetrics();
+	}
 
-		if (elements.stream().anyMatch(ExecutableElement.class::isInstance)) {
-			append();
-			append("private static ", Object.class, " getMethodValue(", String.class, " name, ", typeFqn, " object) {");
-			append("try {");
-			append(Method.class, " m = ", typeFqn, ".class.getDeclaredMethod(name);");
-			append("m.setAccessible(true);");
-			append("return m.invoke(object);");
-			append("} catch (", ReflectiveOperationException.class, " e) {");
-			append("throw new ", RuntimeException.class, "(e);");
-			append("}");
-			append("}");
-
+	/** Return the number of bits the member takes in the sort key, or zero if it can't be packed. */
+	private int keyBits(Member member) {
+		if (isComparisonStep(member)) return 0;
+		switch (member.typeKind) {
+			case BOOLEAN: return 1;
+			case BYTE: return Byte.SIZE;
+			case SHORT: return Short.SIZE;
+			case CHAR: return Character.SIZE;
+			case INT: return Integer.SIZE;
+			case FLOAT: return Float.SIZE;
+			case LONG: return Long.SIZE;
+			case DOUBLE: return Double.SIZE;
+			// An ordinal fits in 16 bits, as a class can't have more constants. Handling null needs one more bit.
+			default: return !member.isEnum ? 0 : nullResult(member.getAnnotation(MakeComparable.Include.class)) == 0 ? 16 : 17;
+		}
+	}
 
-			append();
-			append("private static int compareMethod(", String.class, " name, ", typeFqn, " first, ", typeFqn, " second) {");
-			append("return compareValue(getMethodValue(name, first), getMethodValue(name, second));");
+	/**
+	 * Generate a method concatenating the bits of the members, so that the signed comparison of the keys agrees with {@code compare}.
+	 * Every member gets mapped to an unsigned value preserving its order, which gets inverted when reversed.
+	 */
+	private void appendSortKey(List<Member> packedMembers) {
+		append();
+		append("@", SuppressWarnings.class, "({\"rawtypes\", \"unchecked\"})");
+		append("public static long sortKey(", model.qualifiedName, " object) {");
+		append("long key = 0;");
+		int totalBits = 0;
+		for (final Member member : packedMembers) {
+			final Include includeAnn = member.getAnnotation(MakeComparable.Include.class);
+			final boolean reverse = includeAnn!=null && includeAnn.reverse();
+			final int bits = keyBits(member);
+			totalBits += bits;
+			final String mask = bits == Long.SIZE ? "-1L" : "0x" + Long.toHexString((1L << bits) - 1) + "L";
+			append("{");
+			append(member.erasedTypeName, " v = ", valueOf(member, "object"), ";");
+			final String value;
+			switch (member.typeKind) {
+				case BOOLEAN: value = "(v ? 1L : 0L)"; break;
+				case BYTE: value = "((v ^ 0x80) & 0xFFL)"; break;
+				case SHORT: value = "((v ^ 0x8000) & 0xFFFFL)"; break;
+				case CHAR: value = "(long) v"; break;
+				case INT: value = "((v ^ 0x80000000) & 0xFFFFFFFFL)"; break;
+				case LONG: value = "(v ^ " + Long.class.getName() + ".MIN_VALUE)"; break;
+				case FLOAT:
+					append("int bits = ", Float.class, ".floatToIntBits(v);");
+					value = "((bits ^ (bits >> 31 | 0x80000000)) & 0xFFFFFFFFL)";
+					break;
+				case DOUBLE:
+					append("long bits = ", Double.class, ".doubleToLongBits(v);");
+					value = "(bits ^ (bits >> 63 | " + Long.class.getName() + ".MIN_VALUE))";
+					break;
+				default:
+					final int nullResult = nullResult(includeAnn);
+					final String ordinal = reverse ? "(0xFFFF ^ v.ordinal())" : "v.ordinal()";
+					// The placement of nulls doesn't depend on reverse, so only the ordinal gets inverted.
+					value = nullResult == 0 ? "(long) " + ordinal : "(v == null ? " + (nullResult < 0 ? "0L" : mask) + " : " + ordinal + " + 1L)";
+			}
+			final boolean invert = reverse && !member.isEnum;
+			append("key = ", totalBits == bits ? "" : "key << " + bits + " | ", invert ? mask + " ^ " : "", value, ";");
 			append("}");
 		}
+		// Only a key using all bits can have the sign bit set, which must be flipped for the signed comparison.
+		append("return key", totalBits == Long.SIZE ? " ^ " + Long.class.getName() + ".MIN_VALUE" : "", ";");
+		append("}");
+	}
 
-		if (!elements.isEmpty()) {
-			append();
-			append("@", SuppressWarnings.class, "(\"all\")");
-			append("private static int compareValue(", Object.class, " first, ", Object.class, " second) {");
-			append("if (first == second) return 0;");
-			append("Comparable<Object> a =(Comparable<Object>) first;");
-			append("Comparable<Object> b =(Comparable<Object>) second;");
-			append("return a.compareTo(b);");
+	/** Generate a method sorting by the keys, comparing the objects with equal keys, unless the keys contain all members. */
+	private void appendSort(boolean isKeyComplete) {
+		final String typeFqn = model.qualifiedName;
+		append();
+		append("@", SuppressWarnings.class, "({\"rawtypes\", \"unchecked\"})");
+		append("public static void sort(", typeFqn, "[] array) {");
+		append("int n = array.length;");
+		append("long[] keys = new long[n];");
+		append("int[] indexes = new int[n];");
+		append("for (int i=0; i<n; ++i) {");
+		append("keys[i] = sortKey(array[i]);");
+		append("indexes[i] = i;");
+		append("}");
+		append("radixSort(keys, indexes);");
+		append(typeFqn, "[] copy = array.clone();");
+		append("for (int i=0; i<n; ++i) array[i] = copy[indexes[i]];");
+		if (!isKeyComplete) {
+			append("for (int start=0, end; start<n; start=end) {");
+			append("end = start + 1;");
+			append("while (end<n && keys[end]==keys[start]) ++end;");
+			append("if (end-start > 1) ", Arrays.class, ".sort(array, start, end, (first, second) -> compare(first, second));");
 			append("}");
 		}
+		append("}");
 
+		// A stable LSD radix sort of the signed keys, moving the indexes along and skipping the bytes equal for all keys.
+		if (!declare("radixSort")) return;
+		append();
+		append("private static void radixSort(long[] keys, int[] indexes) {");
+		append("int n = keys.length;");
+		append("if (n < 2) return;");
+		append("long[] currentKeys = keys;");
+		append("int[] currentIndexes = indexes;");
+		append("long[] otherKeys = new long[n];");
+		append("int[] otherIndexes = new int[n];");
+		append("int[] offsets = new int[256];");
+		append("for (int shift=0; shift<64; shift+=8) {");
+		append("int flip = shift == 56 ? 0x80 : 0;");
+		append(Arrays.class, ".fill(offsets, 0);");
+		append("for (long key : currentKeys) ++offsets[(int) (key >>> shift) & 0xFF ^ flip];");
+		append("if (offsets[(int) (currentKeys[0] >>> shift) & 0xFF ^ flip] == n) continue;");
+		append("for (int i=0, sum=0; i<256; ++i) {");
+		append("int count = offsets[i];");
+		append("offsets[i] = sum;");
+		append("sum += count;");
+		append("}");
+		append("for (int i=0; i<n; ++i) {");
+		append("int position = offsets[(int) (currentKeys[i] >>> shift) & 0xFF ^ flip]++;");
+		append("otherKeys[position] = currentKeys[i];");
+		append("otherIndexes[position] = currentIndexes[i];");
+		append("}");
+		append("long[] swapKeys = currentKeys;");
+		append("currentKeys = otherKeys;");
+		append("otherKeys = swapKeys;");
+		append("int[] swapIndexes = currentIndexes;");
+		append("currentIndexes = otherIndexes;");
+		append("otherIndexes = swapIndexes;");
+		append("}");
+		append("if (currentKeys != keys) {");
+		append(System.class, ".arraycopy(currentKeys, 0, keys, 0, n);");
+		append(System.class, ".arraycopy(currentIndexes, 0, indexes, 0, n);");
+		append("}");
 		append("}");
 	}
 
-	@Override protected void body(VariableElement element) {
-		bodyInternal(element);
+	@Override protected void body(Member member) {
+		final Include includeAnn = member.getAnnotation(MakeComparable.Include.class);
+		final boolean reverse = includeAnn!=null && includeAnn.reverse();
+
+		if (!isFirst) append("if (result != 0) return result;");
+		isFirst = false;
+		if (isComparisonStep(member)) {
+			appendComparisonStep(member, reverse ? "second" : "first", reverse ? "first" : "second");
+			return;
+		}
+		final String first = valueOf(member, reverse ? "second" : "first");
+		final String second = valueOf(member, reverse ? "first" : "second");
+		if (member.typeKind.isPrimitive()) {
+			append("result = ", primitiveCompareMethod(member.typeKind), "(", first, ", ", second, ");");
+		} else {
+			final String typeName = member.erasedTypeName;
+			append("{");
+			append(typeName, " a = ", first, ";");
+			append(typeName, " b = ", second, ";");
+			final String comparison = member.isEnum ? Integer.class.getName() + ".compare(a.ordinal(), b.ordinal())" : "a.compareTo(b)";
+			final int nullResult = nullResult(includeAnn) * (reverse ? -1 : 1);
+			if (nullResult == 0) {
+				append("result = a == b ? 0 : ", comparison, ";");
+			} else {
+				append("result = a == b ? 0 : a == null ? ", nullResult, " : b == null ? ", -nullResult, " : ", comparison, ";");
+			}
+			append("}");
+		}
 	}
 
-	@Override protected void body(ExecutableElement element) {
-		bodyInternal(element);
+	/** Let the member compare the objects directly, without extracting any values. */
+	private void appendComparisonStep(Member member, String first, String second) {
+		final String typeFqn = model.qualifiedName;
+		if (member.isField) {
+			append("result = ", typeFqn, ".", member.name, ".compare(", first, ", ", second, ");");
+		} else if (member.isStatic) {
+			append("result = ", typeFqn, ".", member.name, "(", first, ", ", second, ");");
+		} else {
+			append("result = ", first, ".", member.name, "(", second, ");");
+		}
 	}
 
-	private void bodyInternal(Element element) {
-		final String s = element instanceof VariableElement ? "Field" : "Method";
-		if (!isFirst) append("if (result != 0) return result;");
-		append("result = compare", s, "(\"", element.getSimpleName().toString(), "\", first, second);");
-		isFirst = false;
+	/**
+	 * Return the result of comparing null to a non-null value, or zero if nulls don't get handled.
+	 * The setting on the member wins over the setting on the class.
+	 */
+	private int nullResult(Include includeAnn) {
+		if (includeAnn != null && includeAnn.nullsFirst()) return -1;
+		if (includeAnn != null && includeAnn.nullsLast()) return 1;
+		if (makeComparableAnn.nullsFirst()) return -1;
+		if (makeComparableAnn.nullsLast()) return 1;
+		return 0;
+	}
+
+	private String primitiveCompareMethod(TypeKind kind) {
+		switch (kind) {
+			case BOOLEAN: return Boolean.class.getName() + ".compare";
+			case BYTE: return Byte.class.getName() + ".compare";
+			case SHORT: return Short.class.getName() + ".compare";
+			case CHAR: return Character.class.getName() + ".compare";
+			case INT: return Integer.class.getName() + ".compare";
+			case LONG: return Long.class.getName() + ".compare";
+			case FLOAT: return Float.class.getName() + ".compare";
+			case DOUBLE: return Double.class.getName() + ".compare";
+			default: throw new IllegalArgumentException(kind.toString());
+		}
 	}
 
 	private final boolean excludeByDefault;
 	private final MakeComparable makeComparableAnn;
 	private boolean isFirst = true;
+	/** The number of leading members packed into the sort key. */
+	private int packedCount;
 }
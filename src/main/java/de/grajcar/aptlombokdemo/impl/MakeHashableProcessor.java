@@ -0,0 +1,249 @@
+package de.grajcar.aptlombokdemo.impl;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.type.TypeKind;
+
+import de.grajcar.aptlombokdemo.MakeComparable;
+import de.grajcar.aptlombokdemo.MakeHashable;
+import de.grajcar.aptlombokdemo.impl.TypeModel.Member;
+
+public class MakeHashableProcessor extends TypeProcessor {
+	MakeHashableProcessor(ProcessingEnvironment processingEnv, TypeModel model) {
+		super(processingEnv, model);
+		excludeByDefault = model.getAnnotation(MakeHashable.Exclude.class) != null;
+		cacheFieldName = model.getAnnotation(MakeHashable.class).cacheField();
+		cacheField = cacheFieldName.isEmpty() ? null : findCacheField();
+	}
+
+	private Member findCacheField() {
+		final Optional<Member> result = model.members.stream().filter(m -> m.isField && m.name.equals(cacheFieldName)).findFirst();
+		if (!result.isPresent()) {
+			raiseError(typeElement, "There's no field " + cacheFieldName + " for caching the hash code.");
+		} else if (result.get().typeKind != TypeKind.INT || result.get().isStatic || result.get().isFinal) {
+			raiseError(result.get().element, "The field caching the hash code must be a non-static non-final int.");
+		} else {
+			return result.get();
+		}
+		return null;
+	}
+
+	/** Return the selected members, the cheapest to compare first, as most unequal objects differ in all of them. */
+	@Override protected List<Member> collectMembers() {
+		final List<Member> result = model.members.stream()
+				.filter(m -> !isHashCodeCache(m))
+				.filter(this::accept)
+				.sorted(Comparator.comparingInt(this::getCost))
+				.collect(Collectors.toList());
+		if (cacheField != null) {
+			result.stream().filter(m -> m.isField && !m.isFinal).forEach(m -> raiseWarning(m.element,
+					"Caching the hash code of a type with a non-final field is dangerous."));
+		}
+		if (model.getAnnotation(MakeComparable.class) != null) warnAboutInconsistency(result);
+		return result;
+	}
+
+	private int getCost(Member member) {
+		if (member.typeKind.isPrimitive()) return 0;
+		if (member.isEnum) return 1;
+		if (member.typeKind == TypeKind.ARRAY) return 3;
+		return 2;
+	}
+
+	private boolean accept(Member member) {
+		final MakeHashable.Exclude excludeAnn = member.getAnnotation(MakeHashable.Exclude.class);
+		final MakeHashable.Include includeAnn = member.getAnnotation(MakeHashable.Include.class);
+		return accept(member, excludeAnn, includeAnn);
+	}
+
+	private boolean accept(Member member, MakeHashable.Exclude excludeAnn, MakeHashable.Include includeAnn) {
+		if (excludeAnn!=null || includeAnn!=null) {
+			final String errorMessage = errorMessageIfAnnotated(member);
+			if (!errorMessage.isEmpty()) {
+				raiseError(member.element, errorMessage);
+				return false;
+			}
+		}
+		if (excludeAnn != null) {
+			if (includeAnn != null) raiseError(member.element, "Combining Include and Exclude on a single element is contradictory.");
+			return false;
+		}
+		final boolean includedWhenUnanotated = !excludeByDefault && member.isField && !member.isStatic;
+
+		if (includeAnn == null) return includedWhenUnanotated;
+
+		if (includedWhenUnanotated) raiseWarning(member.element, "Needless @MakeHashable.Include");
+		return true;
+	}
+
+	private String errorMessageIfAnnotated(Member member) {
+		if (member.isStatic) return "MakeHashable doesn't work with a static element.";
+		if (member.isField) return "";
+		if (member.isMethod) {
+			if (member.hasParameters) return "MakeHashable doesn't work with a method with arguments.";
+			if (member.typeKind == TypeKind.VOID) return "MakeHashable doesn't work with a void method.";
+			return "";
+		}
+		return "Include and Exclude on this elements is forbidden.";
+	}
+
+	/**
+	 * Warn when {@link MakeComparable} uses different members, as then {@code compare} can't be consistent with {@code equals}.
+	 * Only the selection rules get checked here, problems with the members themselves get reported by the other feature.
+	 * Comparison methods and comparators get ignored, as there's no way to tell what they compare.
+	 */
+	private void warnAboutInconsistency(List<Member> members) {
+		final boolean comparableExcludeByDefault = model.getAnnotation(MakeComparable.Exclude.class) != null;
+		final String differences = model.members.stream()
+				.filter(m -> !isHashCodeCache(m) && !m.isStatic && !m.hasParameters)
+				.filter(m -> members.contains(m) != (m.getAnnotation(MakeComparable.Include.class) != null
+						|| !comparableExcludeByDefault && m.isField && m.getAnnotation(MakeComparable.Exclude.class) == null))
+				.map(m -> m.name)
+				.collect(Collectors.joining(", "));
+		if (!differences.isEmpty()) {
+			raiseWarning(typeElement, "MakeComparable is inconsistent with MakeHashable as only one of them uses " + differences + ".");
+		}
+	}
+
+	@Override protected String feature() {
+		return "MakeHashable";
+	}
+
+	@Override protected void intro(List<Member> members) {
+		final String typeFqn = model.qualifiedName;
+		append("public static boolean equals(", typeFqn, " first, ", Object.class, " object) {");
+		append("if (first == object) return true;");
+		append("if (first == null || object == null || first.getClass() != object.getClass()) return false;");
+		append(typeFqn, " second = (", typeFqn, ") object;");
+		for (final Member member : members) appendEquals(member);
+		append("return true;");
+		append("}");
+		append();
+		append("public static int hashCode(", typeFqn, " object) {");
+		if (cacheField != null) {
+			append("int cached = ", valueOf(cacheField, "object"), ";");
+			append("if (cached != 0) return cached;");
+		}
+		append("int result = 1;");
+	}
+
+	private void appendEquals(Member member) {
+		final String first = valueOf(member, "first");
+		final String second = valueOf(member, "second");
+		switch (member.typeKind) {
+			case FLOAT:
+				append("if (", Float.class, ".compare(", first, ", ", second, ") != 0) return false;");
+				return;
+			case DOUBLE:
+				append("if (", Double.class, ".compare(", first, ", ", second, ") != 0) return false;");
+				return;
+			default:
+				if (member.typeKind.isPrimitive() || member.isEnum) {
+					append("if (", first, " != ", second, ") return false;");
+				} else {
+					final String method = member.typeKind == TypeKind.ARRAY ? arraysMethod(member, "equals") : Objects.class.getName() + ".equals";
+					append("if (!", method, "(", first, ", ", second, ")) return false;");
+				}
+		}
+	}
+
+	@Override protected void outtro(List<Member> members) {
+		if (cacheField != null) {
+			// Zero means not cached yet, so it must not be the result.
+			append("if (result == 0) result = ", Integer.class, ".MIN_VALUE;");
+			if (cacheField.isPrivate) {
+				append(privateName("cacheHash"), "(object, result);");
+			} else {
+				append("object.", cacheField.name, " = result;");
+			}
+		}
+		append("return result;");
+		append("}");
+
+		appendAccessors(cacheField == null ? members : concat(members, cacheField));
+		if (cacheField != null && cacheField.isPrivate) appendCacheSetter();
+	}
+
+	private static List<Member> concat(List<Member> members, Member member) {
+		final List<Member> result = new ArrayList<>(members);
+		result.add(member);
+		return result;
+	}
+
+	@Override protected void body(Member member) {
+		final String value = valueOf(member, "object");
+		final String hash;
+		if (member.typeKind.isPrimitive()) {
+			hash = boxedTypeName(member.typeKind) + ".hashCode(" + value + ")";
+		} else if (member.typeKind == TypeKind.ARRAY) {
+			hash = arraysMethod(member, "hashCode") + "(" + value + ")";
+		} else {
+			hash = Objects.class.getName() + ".hashCode(" + value + ")";
+		}
+		append("result = 31 * result + ", hash, ";");
+	}
+
+	/** Return the method of {@link Arrays} to be used, where arrays of objects get compared deeply, as they may contain arrays. */
+	private String arraysMethod(Member member, String operation) {
+		final boolean isDeep = !member.componentTypeKind.isPrimitive();
+		return Arrays.class.getName() + "." + (isDeep ? "deep" + Character.toUpperCase(operation.charAt(0)) + operation.substring(1) : operation);
+	}
+
+	private String boxedTypeName(TypeKind kind) {
+		switch (kind) {
+			case BOOLEAN: return Boolean.class.getName();
+			case BYTE: return Byte.class.getName();
+			case SHORT: return Short.class.getName();
+			case CHAR: return Character.class.getName();
+			case INT: return Integer.class.getName();
+			case LONG: return Long.class.getName();
+			case FLOAT: return Float.class.getName();
+			case DOUBLE: return Double.class.getName();
+			default: throw new IllegalArgumentException(kind.toString());
+		}
+	}
+
+	/** Generate a setter for the private field caching the hash code, erased like the getters. */
+	private void appendCacheSetter() {
+		final String handleName = privateName("CACHE_SETTER");
+		append();
+		append("private static final ", MethodHandle.class, " ", handleName, " = fieldSetter(", model.qualifiedName, ".class, \"", cacheField.name, "\");");
+		append();
+		append("private static void ", privateName("cacheHash"), "(", model.qualifiedName, " object, int value) {");
+		append("try {");
+		append(handleName, ".invokeExact((", Object.class, ") object, value);");
+		append("} catch (", RuntimeException.class, " | ", Error.class, " e) {");
+		append("throw e;");
+		append("} catch (", Throwable.class, " e) {");
+		append("throw new ", RuntimeException.class, "(e);");
+		append("}");
+		append("}");
+		if (!declare("fieldSetter")) return;
+		append();
+		append("private static ", MethodHandle.class, " fieldSetter(", Class.class, "<?> type, ", String.class, " name) {");
+		append("try {");
+		append(Field.class, " f = type.getDeclaredField(name);");
+		append("f.setAccessible(true);");
+		append(MethodHandle.class, " h = ", MethodHandles.class, ".lookup().unreflectSetter(f);");
+		append("return h.asType(h.type().erase());");
+		append("} catch (", ReflectiveOperationException.class, " e) {");
+		append("throw new ", ExceptionInInitializerError.class, "(e);");
+		append("}");
+		append("}");
+	}
+
+	private final boolean excludeByDefault;
+	private final String cacheFieldName;
+	/** The field caching the hash code, if any. */
+	private final Member cacheField;
+}
@@ -0,0 +1,132 @@
+package de.grajcar.aptlombokdemo.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Collects the content of a single generated source file.
+ * The file may contain the helpers for a single type or for all types of a package.
+ *
+ * <p>The body gets appended to a single buffer, which gets reused for all files written by the same instance, see {@link #reset(String)}.
+ * Only the header needs to wait until the body is complete, as imports may get added while rendering.
+ * The imports are sorted and lines end with {@code '\n'} on all platforms, so that the same input always leads to the same bytes.
+ */
+final class SourceBuilder {
+	/** Start a new file in the given package, forgetting everything appended before. */
+	void reset(String packageName) {
+		this.packageName = packageName;
+		body.setLength(0);
+		imports.clear();
+		declaredMembers.clear();
+		indent = 0;
+		lineCount = 0;
+		byteCount = 0;
+	}
+
+	void addImport(String name) {
+		imports.add(name);
+	}
+
+	/**
+	 * Register the name of a member to be generated.
+	 *
+	 * @return false if a member of this name has been already generated, so it should be skipped.
+	 */
+	boolean declare(String memberName) {
+		return declaredMembers.add(memberName);
+	}
+
+	/** Append a line consisting of the given parts, where classes stand for their names. The indentation gets derived from the braces. */
+	void append(Object... parts) {
+		final int start = body.length();
+		for (final Object p : parts) {
+			if (p instanceof Class) {
+				body.append(((Class<?>) p).getName());
+			} else {
+				body.append(p);
+			}
+		}
+		final int end = body.length();
+		if (end > start) {
+			if (body.charAt(start) == '}') --indent;
+			body.insert(start, indentation(indent));
+			if (body.charAt(body.length() - 1) == '{') ++indent;
+		}
+		body.append('\n');
+		++lineCount;
+	}
+
+	private static String indentation(int indent) {
+		return indent < INDENTATIONS.length ? INDENTATIONS[indent] : INDENTATIONS[INDENTATIONS.length-1] + indentation(indent - INDENTATIONS.length + 1);
+	}
+
+	/**
+	 * Write the source file for the class of the given name.
+	 * The originating elements let incremental builds (e.g., Gradle) know what needs to be regenerated when a source changes.
+	 * Any failure gets reported on the first originating element.
+	 */
+	void write(ProcessingEnvironment processingEnv, String qualifiedName, Element... originatingElements) {
+		header.setLength(0);
+		if (!packageName.isEmpty()) header.append("package ").append(packageName).append(";\n");
+		header.append("\n");
+		imports.forEach(i -> header.append("import ").append(i).append(";\n"));
+		header.append("\n");
+		try {
+			final JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, originatingElements);
+			try (Writer writer = file.openWriter()) {
+				writer.append(header).append(body);
+			}
+			byteCount = utf8Length(header) + utf8Length(body);
+		} catch (final IOException e) {
+			final String message = e.getClass().getName() + ": " + e.getMessage();
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, originatingElements[0]);
+		}
+	}
+
+	private static long utf8Length(CharSequence s) {
+		long result = s.length();
+		for (int i=0; i<s.length(); ++i) {
+			final char c = s.charAt(i);
+			if (c >= 0x800) {
+				// A surrogate pair takes four bytes in total, any other char three.
+				result += Character.isSurrogate(c) ? 1 : 2;
+			} else if (c >= 0x80) {
+				++result;
+			}
+		}
+		return result;
+	}
+
+	/** Return the number of lines of the body. */
+	int lineCount() {
+		return lineCount;
+	}
+
+	/** Return the number of bytes written in UTF-8. */
+	long byteCount() {
+		return byteCount;
+	}
+
+	private static final String[] INDENTATIONS = new String[16];
+	static {
+		for (int i=0; i<INDENTATIONS.length; ++i) INDENTATIONS[i] = String.join("", Collections.nCopies(i, "\t"));
+	}
+
+	private String packageName = "";
+	private final StringBuilder header = new StringBuilder();
+	private final StringBuilder body = new StringBuilder();
+	private final Set<String> imports = new TreeSet<>();
+	private final Set<String> declaredMembers = new HashSet<>();
+	private int indent;
+	private int lineCount;
+	private long byteCount;
+}
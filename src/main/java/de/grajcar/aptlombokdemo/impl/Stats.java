@@ -0,0 +1,99 @@
+package de.grajcar.aptlombokdemo.impl;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Timings and counts of all phases of the processing, reported when {@link DemoProcessor#STATS_OPTION} is given.
+ * There's an entry per round, type and feature, plus entries for taking the snapshot of a type and for writing an aggregated helper.
+ */
+final class Stats {
+	static final class Entry {
+		private Entry(int round, String type, String feature) {
+			this.round = round;
+			this.type = type;
+			this.feature = feature;
+		}
+
+		long totalNanos() {
+			return modelNanos + collectNanos + renderNanos + writeNanos;
+		}
+
+		final int round;
+		final String type;
+		final String feature;
+		long modelNanos;
+		long collectNanos;
+		long renderNanos;
+		long writeNanos;
+		int members;
+		int lines;
+		long bytes;
+	}
+
+	void startRound() {
+		++round;
+		roundStartNanos = System.nanoTime();
+	}
+
+	void endRound() {
+		roundNanos.add(System.nanoTime() - roundStartNanos);
+	}
+
+	Entry newEntry(String type, String feature) {
+		final Entry result = new Entry(round, type, feature);
+		entries.add(result);
+		return result;
+	}
+
+	/** Write all entries as CSV, followed by a row with the feature "round" and the wall time for each round. */
+	void writeReport(Path path) throws IOException {
+		try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+			writer.println("round,type,feature,totalNanos,modelNanos,collectNanos,renderNanos,writeNanos,members,lines,bytes");
+			for (final Entry e : entries) {
+				writer.println(e.round + "," + e.type + "," + e.feature + "," + e.totalNanos()
+						+ "," + e.modelNanos + "," + e.collectNanos + "," + e.renderNanos + "," + e.writeNanos
+						+ "," + e.members + "," + e.lines + "," + e.bytes);
+			}
+			for (int i=0; i<roundNanos.size(); ++i) writer.println((i+1) + ",,round," + roundNanos.get(i) + ",,,,,,,");
+			if (writer.checkError()) throw new IOException("Exception in PrintWriter.");
+		}
+	}
+
+	/** Return a human-readable summary containing the totals per phase and the slowest types. */
+	String summary() {
+		final long model = entries.stream().mapToLong(e -> e.modelNanos).sum();
+		final long collect = entries.stream().mapToLong(e -> e.collectNanos).sum();
+		final long render = entries.stream().mapToLong(e -> e.renderNanos).sum();
+		final long write = entries.stream().mapToLong(e -> e.writeNanos).sum();
+		final long total = roundNanos.stream().mapToLong(Long::longValue).sum();
+		final String slowest = entries.stream()
+				.sorted(Comparator.comparingLong(Entry::totalNanos).reversed())
+				.limit(SLOWEST_COUNT)
+				.map(e -> e.type + " " + e.feature + " " + millis(e.totalNanos()))
+				.collect(Collectors.joining(", "));
+		return "aptlombokdemo: " + roundNanos.size() + " rounds took " + millis(total)
+				+ " (model " + millis(model) + ", collect " + millis(collect) + ", render " + millis(render) + ", write " + millis(write) + ")"
+				+ "; generated " + entries.stream().mapToLong(e -> e.bytes).sum() + " bytes"
+				+ "; slowest: " + slowest;
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.1f ms", nanos / 1e6);
+	}
+
+	private static final int SLOWEST_COUNT = 5;
+
+	private final List<Entry> entries = new ArrayList<>();
+	private final List<Long> roundNanos = new ArrayList<>();
+	private int round;
+	private long roundStartNanos;
+}
@@ -1,155 +1,577 @@
 package de.grajcar.aptlombokdemo.impl;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.annotation.processing.ProcessingEnvironment;
-import javax.lang.model.element.Element;
+import javax.lang.model.SourceVersion;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.util.Types;
 
 import de.grajcar.aptlombokdemo.ToString;
+import de.grajcar.aptlombokdemo.ToStringCache;
+import de.grajcar.aptlombokdemo.ToStringUtf8;
+import de.grajcar.aptlombokdemo.impl.TypeModel.Member;
 
 public class ToStringProcessor extends TypeProcessor {
-	ToStringProcessor(ProcessingEnvironment processingEnv, TypeElement typeElement) {
-		super(processingEnv, typeElement);
-		excludeByDefault = typeElement.getAnnotation(ToString.Exclude.class) != null;
-		toStringAnn = typeElement.getAnnotation(ToString.class);
+	ToStringProcessor(ProcessingEnvironment processingEnv, TypeModel model) {
+		super(processingEnv, model);
+		excludeByDefault = model.getAnnotation(ToString.Exclude.class) != null;
+		toStringAnn = model.getAnnotation(ToString.class);
+		if (toStringAnn.callSuper()) raiseWarning(typeElement, "callSuper is not implemented as it needs a big hack.");
+		if (!toStringAnn.doNotUseGetters()) {
+			raiseWarning(typeElement, "doNotUseGetters is not implemented as it's unclear how it should interact with using methods.");
+		}
+		if (toStringAnn.maxLength() < 0) raiseError(typeElement, "maxLength must not be negative.");
+		if (toStringAnn.maxElements() < 0) raiseError(typeElement, "maxElements must not be negative.");
+		if (toStringAnn.maxDepth() < 1) raiseError(typeElement, "maxDepth must be at least 1.");
+		if (toStringAnn.cacheSize() < 1) raiseError(typeElement, "cacheSize must be at least 1.");
+		hasLengthLimit = toStringAnn.maxLength() != Integer.MAX_VALUE;
+		hasElementLimit = toStringAnn.maxElements() != Integer.MAX_VALUE;
+		isConcatenationSupported = processingEnv.getSourceVersion().compareTo(SourceVersion.RELEASE_8) > 0;
 	}
 
-	@Override protected List<Element> collectElements() {
-		final List<Element> collected = typeElement.getEnclosedElements().stream().filter(this::accept).collect(Collectors.toList());
+	@Override protected List<Member> collectMembers() {
+		final List<Member> collected = model.members.stream().filter(this::accept).collect(Collectors.toList());
 		final Set<String> explicitlyIncludedNames = collected
 				.stream()
-				.filter(e -> e.getAnnotation(ToString.Include.class) != null)
+				.filter(m -> m.getAnnotation(ToString.Include.class) != null)
 				.map(this::toDisplayName)
 				.collect(Collectors.toSet());
-		return collected.stream()
-				.filter(e -> !explicitlyIncludedNames.contains(toDisplayName(e)) || e.getAnnotation(ToString.Include.class) != null)
+		final List<Member> result = collected.stream()
+				.filter(m -> !explicitlyIncludedNames.contains(toDisplayName(m)) || m.getAnnotation(ToString.Include.class) != null)
 				.collect(Collectors.toList());
+		if (toStringAnn.cache()) {
+			result.stream().filter(m -> m.isField && !m.isFinal).forEach(m -> raiseWarning(m.element,
+					"Caching toString of a type with a non-final field is dangerous."));
+		}
+		// Without any member possibly leading back to this type, there can't be any cycle, so the guard would be wasted.
+		hasDepthLimit = toStringAnn.maxDepth() != Integer.MAX_VALUE && !result.stream().allMatch(ToStringProcessor::isLeaf);
+		areMembersSimple = !hasLengthLimit && !hasElementLimit && !hasDepthLimit
+				&& result.stream().allMatch(m -> m.typeKind != TypeKind.ARRAY && !m.isDeclaredTypeAnnotatedWith(ToString.class));
+		isConcatenated = isConcatenationSupported && areMembersSimple && !toStringAnn.cache() && result.size() <= MAX_CONCATENATED_MEMBERS;
+		return result;
 	}
 
-	private boolean accept(Element element) {
-		final ToString.Exclude excludeAnn = element.getAnnotation(ToString.Exclude.class);
-		final ToString.Include includeAnn = element.getAnnotation(ToString.Include.class);
-		return accept(element, excludeAnn, includeAnn);
+	private boolean accept(Member member) {
+		final ToString.Exclude excludeAnn = member.getAnnotation(ToString.Exclude.class);
+		final ToString.Include includeAnn = member.getAnnotation(ToString.Include.class);
+		return accept(member, excludeAnn, includeAnn);
 	}
 
-	private boolean accept(Element element, ToString.Exclude excludeAnn, ToString.Include includeAnn) {
+	private boolean accept(Member member, ToString.Exclude excludeAnn, ToString.Include includeAnn) {
+		if (isHashCodeCache(member)) {
+			if (includeAnn != null) raiseWarning(member.element, "The field caching the hash code doesn't get included, as it changes when hashing.");
+			return false;
+		}
 		if (excludeAnn!=null || includeAnn!=null) {
-			final String errorMessage = errorMessageIfAnnotated(element);
+			final String errorMessage = errorMessageIfAnnotated(member);
 			if (!errorMessage.isEmpty()) {
-				raiseError(element, errorMessage);
+				raiseError(member.element, errorMessage);
 				return false;
 			}
 		}
 		if (excludeAnn != null) {
-			if (includeAnn != null) raiseError(element, "Combining Include and Exclude on a single element is contradictory.");
+			if (includeAnn != null) raiseError(member.element, "Combining Include and Exclude on a single element is contradictory.");
 			return false;
 		}
-		final boolean includedWhenUnanotated = !excludeByDefault && element instanceof VariableElement;
+		final boolean includedWhenUnanotated = !excludeByDefault && member.isField;
 
 		if (includeAnn == null) return includedWhenUnanotated;
 
 		//TODO This should generate a warning, but only if the field isn't excluded later by an included equally named method.
-		// if (includedWhenUnanotated && includeAnn.name().isEmpty()) raiseWarning(element, "Needless @ToString.Include");
+		// if (includedWhenUnanotated && includeAnn.name().isEmpty()) raiseWarning(member.element, "Needless @ToString.Include");
 		return true;
 	}
 
-	private String errorMessageIfAnnotated(Element element) {
-		if (element.getModifiers().contains(Modifier.STATIC)) return "ToString doesn't work with a static element.";
-		if (element instanceof VariableElement) return "";
-		if (element instanceof ExecutableElement) {
-			final ExecutableElement executableElement = (ExecutableElement) element;
-			if (!executableElement.getParameters().isEmpty()) return "ToString doesn't work with a method with arguments.";
+	private String errorMessageIfAnnotated(Member member) {
+		if (member.isStatic) return "ToString doesn't work with a static element.";
+		if (member.isField) return "";
+		if (member.isMethod) {
+			if (member.hasParameters) return "ToString doesn't work with a method with arguments.";
+			if (member.typeKind == TypeKind.VOID) return "ToString doesn't work with a void method.";
 			return "";
 		}
 		return "Include and Exclude on this elements is forbidden.";
 	}
 
-	@Override protected String generatedClassName() {
-		return packageName() + "._" + saneTypeName().replace(".", "_") + "_ToStringHelper";
+	@Override protected String feature() {
+		return "ToString";
 	}
 
-	@Override protected void intro(List<Element> elements) {
-		append("public class ", generatedClassName().replaceAll(".*\\.", ""), " {");
-		append("public static ", String.class, " toString(", typeElement.getQualifiedName(), " object) {");
-		append(StringBuilder.class, " result = new StringBuilder();");
-		append("result.append(\"", saneTypeName(), "\").append(\"(\");");
-		if (toStringAnn.callSuper()) {
-			raiseWarning(typeElement, "callSuper is not implemented as it needs a big hack.");
-			//TODO Calling super needs a big hack: https://stackoverflow.com/a/25212108/581205
-			// append("result" + (toStringAnn.callSuper() ? ".append(\"super=\")" : "") + ".append(super.toString());");
+	/** Find the helpers of the members whose type is annotated, so that they can append to the same builder. */
+	@Override protected void resolveHelpers(List<Member> members) {
+		for (final Member m : members) {
+			// The value must be declared by its own type, which may be impossible, e.g., for a private nested class.
+			if (!m.isDeclaredTypeAnnotatedWith(ToString.class) || !m.isTypeAccessible) continue;
+			final TypeElement declaredType = (TypeElement) processingEnv.getTypeUtils().asElement(m.type);
+			final String helper = findHelperClassName(declaredType, feature(), method -> isBuilderOverload(method, declaredType));
+			if (helper != null) nestedHelpers.put(m, helper);
 		}
-		if (!toStringAnn.doNotUseGetters()) {
-			raiseWarning(typeElement, "doNotUseGetters is not implemented as it's unclear how it should interact with using methods.");
+	}
+
+	/** Return whether the method is the overload appending the given type to a {@code StringBuilder}, which older versions didn't generate. */
+	private boolean isBuilderOverload(ExecutableElement method, TypeElement type) {
+		final Types typeUtils = processingEnv.getTypeUtils();
+		final List<? extends VariableElement> parameters = method.getParameters();
+		return method.getSimpleName().contentEquals("toString")
+				&& method.getModifiers().containsAll(EnumSet.of(Modifier.PUBLIC, Modifier.STATIC))
+				&& parameters.size() == 2
+				&& typeUtils.isSameType(typeUtils.erasure(parameters.get(0).asType()), typeUtils.erasure(type.asType()))
+				&& typeUtils.isSameType(parameters.get(1).asType(), processingEnv.getElementUtils().getTypeElement(StringBuilder.class.getName()).asType());
+	}
+
+	/** Return whether appending the member can't append any other object, which may be of this type. */
+	private static boolean isLeaf(Member member) {
+		if (member.typeKind.isPrimitive() || member.isEnum) return true;
+		if (member.typeKind == TypeKind.ARRAY) return member.componentTypeKind.isPrimitive();
+		return LEAF_TYPE_NAMES.contains(member.erasedTypeName);
+	}
+
+	@Override protected void intro(List<Member> members) {
+		final String typeFqn = model.qualifiedName;
+		// With caching, the StringBuilder overload appends the cached string, so the members get appended by another method.
+		final String builderMethod = toStringAnn.cache() ? "toStringUncached" : "toString";
+		final String string = isConcatenated ? concatenation(members) : builderMethod + "(object, new " + StringBuilder.class.getName() + "()).toString()";
+		append("public static ", String.class, " toString(", typeFqn, " object) {");
+		// Without concatenation, the StringBuilder overload does the counting.
+		final boolean isCounted = isMetered() && isConcatenated;
+		if (toStringAnn.cache()) {
+			appendUncachedWhenNested("return toStringUncached(object, new " + StringBuilder.class.getName() + "()).toString();");
+			append(String.class, " result = ", privateName("CACHE"), ".get(object);");
+			append("if (result == null) {");
+			append("result = ", string, ";");
+			if (isCounted) append(metrics(), ".record(result.length());");
+			append(privateName("CACHE"), ".put(object, result);");
+			append("}");
+			append("return result;");
+		} else if (isCounted) {
+			append(String.class, " result = ", string, ";");
+			append(metrics(), ".record(result.length());");
+			append("return result;");
+		} else {
+			append("return ", string, ";");
+		}
+		append("}");
+		append();
+		append("public static ", Appendable.class, " toString(", typeFqn, " object, ", Appendable.class, " sink) throws ", IOException.class, " {");
+		append("if (sink instanceof ", StringBuilder.class, ") return toString(object, (", StringBuilder.class, ") sink);");
+		if (toStringAnn.cache() || isConcatenated) {
+			append("return sink.append(toString(object));");
+		} else {
+			append("return sink.append(toString(object, new ", StringBuilder.class, "()));");
+		}
+		append("}");
+		append();
+		if (toStringAnn.cache()) {
+			append("public static ", StringBuilder.class, " toString(", typeFqn, " object, ", StringBuilder.class, " result) {");
+			appendUncachedWhenNested("return toStringUncached(object, result);");
+			append("return result.append(toString(object));");
+			append("}");
+			append();
+		}
+		append(toStringAnn.cache() ? "private" : "public", " static ", StringBuilder.class, " ", builderMethod, "(", typeFqn, " object, ", StringBuilder.class, " result) {");
+		if (hasDepthLimit) {
+			append("int[] depth = ", privateName("DEPTH"), ".get();");
+			append("if (depth[0] >= ", toStringAnn.maxDepth(), ") return result.append(\"", saneTypeName(), "(...)\");");
+			append("++depth[0];");
+			append("try {");
+		}
+		if (hasLengthLimit) {
+			append("int limit = (int) ", Math.class, ".min((long) result.length() + ", toStringAnn.maxLength(), ", ", Integer.class, ".MAX_VALUE);");
+		} else if (hasElementLimit) {
+			append("int limit = ", Integer.class, ".MAX_VALUE;");
 		}
+		if (isMetered()) append("int start = result.length();");
+		append("result.append(\"", saneTypeName(), "\").append(\"(\");");
+		if (hasLengthLimit) append("members: {");
+		//TODO Calling super needs a big hack: https://stackoverflow.com/a/25212108/581205
+		// append("result" + (toStringAnn.callSuper() ? ".append(\"super=\")" : "") + ".append(super.toString());");
+	}
+
+	/**
+	 * Generate the statement bypassing the cache when called while rendering this type already.
+	 * Only the strings rendered at the top level get cached, as the deeper ones may be truncated by {@code maxDepth}.
+	 */
+	private void appendUncachedWhenNested(String statement) {
+		if (hasDepthLimit) append("if (", privateName("DEPTH"), ".get()[0] != 0) ", statement);
 	}
 
-	@Override protected void outtro(List<Element> elements) {
+	/**
+	 * Return a single string concatenation producing the same result as the {@code StringBuilder} overload.
+	 * Since Java 9, javac compiles it to an {@code invokedynamic} letting {@code StringConcatFactory} size the result exactly,
+	 * which saves growing and copying the builder.
+	 * It's only used when no member needs any of the appenders, which work on a {@code StringBuilder},
+	 * and for at most {@value #MAX_CONCATENATED_MEMBERS} members, as longer concatenations don't get inlined and end up slower.
+	 * With caching, it's not used either, as the members get appended only on a miss.
+	 */
+	private String concatenation(List<Member> members) {
+		final StringBuilder result = new StringBuilder("\"").append(saneTypeName()).append("(");
+		boolean isFirstMember = true;
+		for (final Member m : members) {
+			if (!isFirstMember) result.append(", ");
+			if (toStringAnn.includeFieldNames()) result.append(toDisplayName(m)).append("=");
+			result.append("\" + ").append(valueOf(m, "object")).append(" + \"");
+			isFirstMember = false;
+		}
+		return result.append(")\"").toString();
+	}
+
+	@Override protected void outtro(List<Member> members) {
+		if (hasLengthLimit) append("}");
 		append("result.append(\")\");");
-		append("return result.toString();");
+		if (hasLengthLimit) {
+			append("if (result.length() > limit) {");
+			append("result.setLength(limit);");
+			append("result.append(\"...\");");
+			append("}");
+		}
+		if (isMetered()) append(metrics(), ".record(result.length() - start);");
+		append("return result;");
+		if (hasDepthLimit) {
+			append("} finally {");
+			append("--depth[0];");
+			append("}");
+		}
 		append("}");
 
-		if (elements.stream().anyMatch(VariableElement.class::isInstance)) {
+		if (toStringAnn.writeTo()) appendWriteTo(members);
+		appendAccessors(members);
+		if (toStringAnn.cache()) {
 			append();
-			append("private static ", Object.class, " getFieldValue(", String.class, " name, ", Object.class, " object) {");
-			append("try {");
-			append(Field.class, " f = ", typeElement.getQualifiedName().toString(), ".class.getDeclaredField(name);");
-			append("f.setAccessible(true);");
-			append("return f.get(object);");
-			append("} catch (", ReflectiveOperationException.class, " e) {");
-			append("throw new ", RuntimeException.class, "(e);");
+			append("public static final ", ToStringCache.class, " ", privateName("CACHE"), " = new ", ToStringCache.class, "(", toStringAnn.cacheSize(), ");");
+		}
+		if (hasDepthLimit) {
+			append();
+			append("private static final ", ThreadLocal.class, "<int[]> ", privateName("DEPTH"), " = ", ThreadLocal.class, ".withInitial(() -> new int[1]);");
+		}
+		if (isMetered()) appendMetrics();
+		appendAppenders(members);
+	}
+
+	@Override protected void body(Member member) {
+		final String value = valueOf(member, "object");
+		final String prefix = "result"
+				+ (isFirst ? "" : ".append(\", \")")
+				+ (toStringAnn.includeFieldNames() ? ".append(\"" + toDisplayName(member) + "=\")" : "");
+		if (hasLengthLimit && !isFirst) append("if (result.length() > limit) break members;");
+		final String nestedHelper = nestedHelpers.get(member);
+		if (nestedHelper != null) {
+			appendNested(prefix, value, member, nestedHelper);
+		} else if (member.typeKind == TypeKind.ARRAY) {
+			appendPrefix(prefix);
+			append(arrayAppender(member), "(result, ", value, ", ", toStringAnn.maxElements(), ", ", limit(), ");");
+		} else if (isBoundedCollection(member)) {
+			appendPrefix(prefix);
+			append(member.isMap ? "appendMap" : "appendCollection", "(result, ", value, ", ", toStringAnn.maxElements(), ", limit);");
+		} else if (isBoundedCharSequence(member)) {
+			appendPrefix(prefix);
+			append("appendCharSequence(result, ", value, ", limit);");
+		} else {
+			append(prefix, ".append(", value, ");");
+		}
+		isFirst = false;
+	}
+
+	/**
+	 * Generate the method writing the output as UTF-8, member by member when they're simple, otherwise by encoding {@code toString}.
+	 * The constant parts get merged and written without encoding when they're ASCII, as they nearly always are.
+	 */
+	private void appendWriteTo(List<Member> members) {
+		final String utf8 = ToStringUtf8.class.getName();
+		append();
+		append("public static boolean writeTo(", model.qualifiedName, " object, ", ByteBuffer.class, " buffer) {");
+		append("int start = buffer.position();");
+		append("try {");
+		if (areMembersSimple && !toStringAnn.cache()) {
+			final StringBuilder constant = new StringBuilder(saneTypeName()).append("(");
+			boolean isFirstMember = true;
+			for (final Member m : members) {
+				if (!isFirstMember) constant.append(", ");
+				if (toStringAnn.includeFieldNames()) constant.append(toDisplayName(m)).append("=");
+				appendConstantWrite(constant);
+				append(utf8, ".put(buffer, ", valueOf(m, "object"), ");");
+				isFirstMember = false;
+			}
+			appendConstantWrite(constant.append(")"));
+			if (isMetered()) append(metrics(), ".record(buffer.position() - start);");
+		} else {
+			append(utf8, ".put(buffer, toString(object));");
+		}
+		append("return true;");
+		append("} catch (", BufferOverflowException.class, " e) {");
+		append("buffer.position(start);");
+		append("return false;");
+		append("}");
+		append("}");
+	}
+
+	/** Generate writing the constant, if any, and clear it. */
+	private void appendConstantWrite(StringBuilder constant) {
+		if (constant.length() == 0) return;
+		final boolean isAscii = constant.chars().allMatch(c -> c < 0x80);
+		append(ToStringUtf8.class, isAscii ? ".putAscii" : ".put", "(buffer, \"", constant, "\");");
+		constant.setLength(0);
+	}
+
+	/**
+	 * Let the helper of the nested type append directly to the result.
+	 * This is done only if the value is exactly of the annotated type, as a subclass may override {@code toString}.
+	 * The helper gets found in the same way no matter what gets compiled together, see {@link #findHelperClassName}.
+	 */
+	private void appendNested(String prefix, String value, Member member, String nestedHelper) {
+		final String nestedFqn = member.erasedTypeName;
+		appendPrefix(prefix);
+		append("{");
+		append(nestedFqn, " value = ", value, ";");
+		append("if (value != null && value.getClass() == ", nestedFqn, ".class) {");
+		append(nestedHelper, ".toString(value, result);");
+		append("} else {");
+		append("result.append(value);");
+		append("}");
+		append("}");
+	}
+
+	/** Append the prefix as a statement of its own, unless there's nothing to append. */
+	private void appendPrefix(String prefix) {
+		if (!prefix.equals("result")) append(prefix, ";");
+	}
+
+	/** Return the expression for the maximum length of the result, which exists as a variable only if there's any limit. */
+	private String limit() {
+		return hasLengthLimit || hasElementLimit ? "limit" : Integer.class.getName() + ".MAX_VALUE";
+	}
+
+	/** Return the name of the appender for the array member, only arrays possibly containing arrays need the dispatching one. */
+	private String arrayAppender(Member member) {
+		if (isHex(member)) return "appendHex";
+		return member.componentTypeKind.isPrimitive() || member.mayContainArrays ? "appendArray" : "appendElements";
+	}
+
+	private boolean isHex(Member member) {
+		return toStringAnn.bytesAsHex() && member.componentTypeKind == TypeKind.BYTE;
+	}
+
+	private boolean isBoundedCollection(Member member) {
+		return (hasLengthLimit || hasElementLimit) && (member.isCollection || member.isMap);
+	}
+
+	private boolean isBoundedCharSequence(Member member) {
+		return hasLengthLimit && member.isCharSequence;
+	}
+
+	/**
+	 * Generate the methods appending members only as far as the limits allow.
+	 * Within the limits, they produce the same output as {@code toString} of the standard collections and {@link java.util.Arrays#deepToString(Object[])}.
+	 * They're shared by all types of the class, as the limits get passed as arguments.
+	 */
+	private void appendAppenders(List<Member> members) {
+		final String sb = StringBuilder.class.getName();
+		final Set<TypeKind> componentKinds = EnumSet.noneOf(TypeKind.class);
+		for (final Member m : members) {
+			if (m.typeKind != TypeKind.ARRAY || isHex(m)) continue;
+			if (m.componentTypeKind.isPrimitive()) {
+				componentKinds.add(m.componentTypeKind);
+			} else if (m.mayContainArrays) {
+				// The elements may be arrays of any kind.
+				componentKinds.addAll(PRIMITIVE_KINDS);
+				if (declare("appendArray(Object[])")) appendObjectArrayAppender();
+			} else if (declare("appendElements")) {
+				appendElementsAppender();
+			}
+		}
+		for (final TypeKind kind : componentKinds) {
+			if (declare("appendArray(" + kind + "[])")) appendPrimitiveArrayAppender(kind);
+		}
+		if (members.stream().anyMatch(this::isHex) && declare("appendHex")) {
+			append();
+			append("private static void appendHex(", sb, " result, byte[] value, int maxElements, int limit) {");
+			append("if (value == null) {");
+			append("result.append(\"null\");");
+			append("return;");
+			append("}");
+			append("for (int i=0; i<value.length; ++i) {");
+			append("if (i == maxElements || result.length() > limit) {");
+			append("result.append(\"...\");");
+			append("break;");
+			append("}");
+			append("result.append(", Character.class, ".forDigit((value[i] >> 4) & 0xF, 16)).append(", Character.class, ".forDigit(value[i] & 0xF, 16));");
 			append("}");
 			append("}");
 		}
-
-		if (elements.stream().anyMatch(ExecutableElement.class::isInstance)) {
+		if (members.stream().anyMatch(this::isBoundedCharSequence) && declare("appendCharSequence")) {
 			append();
-			append("private static ", Object.class, " getMethodValue(", String.class, " name, ", Object.class, " object) {");
-			append("try {");
-			append(Method.class, " m = ", typeElement.getQualifiedName().toString(), ".class.getDeclaredMethod(name);");
-			append("m.setAccessible(true);");
-			append("return m.invoke(object);");
-			append("} catch (", ReflectiveOperationException.class, " e) {");
-			append("throw new ", RuntimeException.class, "(e);");
+			append("private static void appendCharSequence(", sb, " result, ", CharSequence.class, " value, int limit) {");
+			append("if (value == null) {");
+			append("result.append(\"null\");");
+			append("} else {");
+			// One char more than allowed is enough for detecting the truncation.
+			append("result.append(value, 0, (int) ", Math.class, ".max(0, ", Math.class, ".min(value.length(), (long) limit - result.length() + 1)));");
 			append("}");
 			append("}");
 		}
+		if (members.stream().anyMatch(m -> isBoundedCollection(m) && !m.isMap) && declare("appendCollection")) {
+			append();
+			append("private static void appendCollection(", sb, " result, ", Collection.class, "<?> value, int maxElements, int limit) {");
+			append("if (value == null) {");
+			append("result.append(\"null\");");
+			append("return;");
+			append("}");
+			append("result.append(\"[\");");
+			append("int count = 0;");
+			append("for (", Object.class, " e : value) {");
+			append("if (count > 0) result.append(\", \");");
+			append("if (count == maxElements || result.length() > limit) {");
+			append("result.append(\"...\");");
+			append("break;");
+			append("}");
+			append("result.append(e == value ? \"(this Collection)\" : e);");
+			append("++count;");
+			append("}");
+			append("result.append(\"]\");");
+			append("}");
+		}
+		if (members.stream().anyMatch(m -> isBoundedCollection(m) && m.isMap) && declare("appendMap")) {
+			append();
+			append("private static void appendMap(", sb, " result, ", Map.class, "<?, ?> value, int maxElements, int limit) {");
+			append("if (value == null) {");
+			append("result.append(\"null\");");
+			append("return;");
+			append("}");
+			append("result.append(\"{\");");
+			append("int count = 0;");
+			append("for (", Map.class, ".Entry<?, ?> e : value.entrySet()) {");
+			append("if (count > 0) result.append(\", \");");
+			append("if (count == maxElements || result.length() > limit) {");
+			append("result.append(\"...\");");
+			append("break;");
+			append("}");
+			append("result.append(e.getKey() == value ? \"(this Map)\" : e.getKey());");
+			append("result.append(\"=\");");
+			append("result.append(e.getValue() == value ? \"(this Map)\" : e.getValue());");
+			append("++count;");
+			append("}");
+			append("result.append(\"}\");");
+			append("}");
+		}
+	}
 
+	private void appendPrimitiveArrayAppender(TypeKind kind) {
+		append();
+		append("private static void appendArray(", StringBuilder.class, " result, ", kind.name().toLowerCase(Locale.ROOT), "[] value, int maxElements, int limit) {");
+		append("if (value == null) {");
+		append("result.append(\"null\");");
+		append("return;");
+		append("}");
+		append("result.append(\"[\");");
+		append("for (int i=0; i<value.length; ++i) {");
+		append("if (i > 0) result.append(\", \");");
+		append("if (i == maxElements || result.length() > limit) {");
+		append("result.append(\"...\");");
+		append("break;");
+		append("}");
+		append("result.append(value[i]);");
+		append("}");
+		append("result.append(\"]\");");
 		append("}");
 	}
 
-	@Override protected void body(VariableElement element) {
-		bodyInternal(element);
+	/** Generate the appender for arrays whose elements can't be arrays, e.g., {@code String[]}. */
+	private void appendElementsAppender() {
+		append();
+		append("private static void appendElements(", StringBuilder.class, " result, ", Object.class, "[] value, int maxElements, int limit) {");
+		append("if (value == null) {");
+		append("result.append(\"null\");");
+		append("return;");
+		append("}");
+		append("result.append(\"[\");");
+		append("for (int i=0; i<value.length; ++i) {");
+		append("if (i > 0) result.append(\", \");");
+		append("if (i == maxElements || result.length() > limit) {");
+		append("result.append(\"...\");");
+		append("break;");
+		append("}");
+		append("result.append(value[i]);");
+		append("}");
+		append("result.append(\"]\");");
+		append("}");
 	}
 
-	@Override protected void body(ExecutableElement element) {
-		bodyInternal(element);
+	/** Generate the appender for object arrays, which dispatches nested arrays to the appenders for their kind. */
+	private void appendObjectArrayAppender() {
+		append();
+		append("private static void appendArray(", StringBuilder.class, " result, ", Object.class, "[] value, int maxElements, int limit) {");
+		append("if (value == null) {");
+		append("result.append(\"null\");");
+		append("return;");
+		append("}");
+		append("result.append(\"[\");");
+		append("for (int i=0; i<value.length; ++i) {");
+		append("if (i > 0) result.append(\", \");");
+		append("if (i == maxElements || result.length() > limit) {");
+		append("result.append(\"...\");");
+		append("break;");
+		append("}");
+		append(Object.class, " e = value[i];");
+		append("if (e == value) {");
+		append("result.append(\"[...]\");");
+		append("} else if (e instanceof ", Object.class, "[]) {");
+		append("appendArray(result, (", Object.class, "[]) e, maxElements, limit);");
+		for (final TypeKind kind : PRIMITIVE_KINDS) {
+			final String type = kind.name().toLowerCase(Locale.ROOT) + "[]";
+			append("} else if (e instanceof ", type, ") {");
+			append("appendArray(result, (", type, ") e, maxElements, limit);");
+		}
+		append("} else {");
+		append("result.append(e);");
+		append("}");
+		append("}");
+		append("result.append(\"]\");");
+		append("}");
 	}
 
-	private void bodyInternal(Element element) {
-		final String s = element instanceof VariableElement ? "Field" : "Method";
-
-		final String line = "result"
-				+ (isFirst ? "" : ".append(\", \")")
-				+ (toStringAnn.includeFieldNames() ? ".append(\"" + toDisplayName(element) + "=\")" : "")
-				+ ".append(get" + s + "Value(\"" + element.getSimpleName().toString() + "\", object));";
-		append(line);
-		isFirst = false;
+	private String toDisplayName(Member member) {
+		final ToString.Include includeAnn = member.getAnnotation(ToString.Include.class);
+		return includeAnn!=null && !includeAnn.name().isEmpty() ? includeAnn.name() : member.name;
 	}
 
-	private String toDisplayName(Element element) {
-		final ToString.Include includeAnn = element.getAnnotation(ToString.Include.class);
-		return includeAnn!=null && !includeAnn.name().isEmpty() ? includeAnn.name() : element.getSimpleName().toString();
-	}
+	private static final int MAX_CONCATENATED_MEMBERS = 16;
+
+	private static final Set<String> LEAF_TYPE_NAMES = Stream.of(
+			String.class, Boolean.class, Byte.class, Short.class, Character.class, Integer.class, Long.class, Float.class, Double.class)
+			.map(Class::getName)
+			.collect(Collectors.toSet());
+
+	private static final Set<TypeKind> PRIMITIVE_KINDS = EnumSet.of(
+			TypeKind.BOOLEAN, TypeKind.BYTE, TypeKind.SHORT, TypeKind.CHAR, TypeKind.INT, TypeKind.LONG, TypeKind.FLOAT, TypeKind.DOUBLE);
 
 	private final boolean excludeByDefault;
 	private final ToString toStringAnn;
+	private final boolean hasLengthLimit;
+	private final boolean hasElementLimit;
+	/** Whether the depth gets limited, which is needed only if some member may lead back to this type. */
+	private boolean hasDepthLimit;
+	/** Whether the source version allows compiling string concatenation efficiently, i.e., it's newer than Java 8. */
+	private final boolean isConcatenationSupported;
+	/** Whether there are neither limits nor members needing anything but their own {@code toString}. */
+	private boolean areMembersSimple;
+	/** Whether {@code toString} returns a single concatenation instead of using a {@code StringBuilder}. */
+	private boolean isConcatenated;
+	/** The classes containing the helpers of the members whose type is annotated, if they can be found. */
+	private final Map<Member, String> nestedHelpers = new HashMap<>();
 	private boolean isFirst = true;
 }
@@ -0,0 +1,259 @@
+package de.grajcar.aptlombokdemo.impl;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+
+import de.grajcar.aptlombokdemo.MakeComparable;
+import de.grajcar.aptlombokdemo.MakeHashable;
+import de.grajcar.aptlombokdemo.ToString;
+
+/**
+ * A snapshot of an annotated type and its members, taken once per round and shared by all features.
+ * Everything the features need gets computed eagerly, so that they don't have to query the element API repeatedly.
+ */
+final class TypeModel {
+	/** A snapshot of a field, a method or any other element enclosed in the type. */
+	static final class Member {
+		private Member(ProcessingEnvironment processingEnv, Element element, KnownTypes knownTypes) {
+			final Types typeUtils = processingEnv.getTypeUtils();
+			this.element = element;
+			name = element.getSimpleName().toString();
+			isField = element instanceof VariableElement;
+			isMethod = element instanceof ExecutableElement;
+			isStatic = element.getModifiers().contains(Modifier.STATIC);
+			isPrivate = element.getModifiers().contains(Modifier.PRIVATE);
+			isFinal = element.getModifiers().contains(Modifier.FINAL);
+			parameterCount = isMethod ? ((ExecutableElement) element).getParameters().size() : 0;
+			hasParameters = parameterCount > 0;
+			isTakingSelfType = isMethod && ((ExecutableElement) element).getParameters()
+					.stream()
+					.allMatch(p -> typeUtils.isAssignable(knownTypes.self, p.asType()));
+			hasThrownTypes = isMethod && !((ExecutableElement) element).getThrownTypes().isEmpty();
+			type = isMethod ? ((ExecutableElement) element).getReturnType() : element.asType();
+			typeKind = type.getKind();
+			componentTypeKind = typeKind==TypeKind.ARRAY ? ((ArrayType) type).getComponentType().getKind() : TypeKind.NONE;
+			// Every array is assignable to Object, Cloneable and Serializable, so any array type can stand for all of them.
+			mayContainArrays = componentTypeKind==TypeKind.ARRAY
+					|| componentTypeKind!=TypeKind.NONE && !componentTypeKind.isPrimitive()
+					&& typeUtils.isAssignable(knownTypes.array, typeUtils.erasure(((ArrayType) type).getComponentType()));
+			final boolean isReference = !typeKind.isPrimitive() && typeKind!=TypeKind.NONE && typeKind!=TypeKind.VOID;
+			final TypeElement declaredType = typeKind==TypeKind.DECLARED ? (TypeElement) typeUtils.asElement(type) : null;
+			isEnum = declaredType != null && declaredType.getKind() == ElementKind.ENUM;
+			isComparable = isReference && typeUtils.isAssignable(type, knownTypes.comparable);
+			if (isReference) {
+				final TypeMirror erasure = typeUtils.erasure(type);
+				TypeMirror accessibleErasure = accessibleErasure(typeUtils, erasure, knownTypes);
+				// The nearest accessible superclass of a comparable type needn't be comparable, while the raw interface is.
+				if (isComparable && !typeUtils.isAssignable(accessibleErasure, knownTypes.comparable)) accessibleErasure = knownTypes.comparable;
+				isTypeAccessible = typeUtils.isSameType(accessibleErasure, erasure);
+				erasedTypeName = accessibleErasure.toString();
+			} else {
+				isTypeAccessible = true;
+				erasedTypeName = type.toString();
+			}
+			isCharSequence = isReference && typeUtils.isAssignable(type, knownTypes.charSequence);
+			isCollection = isReference && typeUtils.isAssignable(type, knownTypes.collection);
+			isMap = isReference && typeUtils.isAssignable(type, knownTypes.map);
+			isSelfComparator = isReference && typeUtils.isAssignable(type, knownTypes.selfComparator);
+			annotations = annotationsOf(element);
+			declaredTypeAnnotations = declaredType == null ? Collections.emptyMap() : annotationsOf(declaredType);
+		}
+
+		/** Return the annotation of the given type, which must be one of {@link TypeModel#ANNOTATION_TYPES}. */
+		<A extends Annotation> A getAnnotation(Class<A> annotationType) {
+			return annotationType.cast(annotations.get(annotationType));
+		}
+
+		/**
+		 * Return the erased type, if it can be named in the package of the helpers, otherwise its nearest superclass which can,
+		 * as the helpers can't name, e.g., a private nested class. Arrays get handled by their component type.
+		 */
+		private static TypeMirror accessibleErasure(Types typeUtils, TypeMirror erasure, KnownTypes knownTypes) {
+			if (erasure.getKind() == TypeKind.ARRAY) {
+				final TypeMirror componentType = ((ArrayType) erasure).getComponentType();
+				return componentType.getKind().isPrimitive() ? erasure : typeUtils.getArrayType(accessibleErasure(typeUtils, componentType, knownTypes));
+			}
+			for (TypeMirror t=erasure; t.getKind()==TypeKind.DECLARED; t=typeUtils.erasure(((TypeElement) typeUtils.asElement(t)).getSuperclass())) {
+				if (isAccessible((TypeElement) typeUtils.asElement(t), knownTypes.helperPackage)) return t;
+			}
+			// Only interfaces and inaccessible classes without any accessible superclass but Object get here.
+			return knownTypes.object;
+		}
+
+		/** Return whether the type and all types enclosing it can be named in the given package. */
+		private static boolean isAccessible(TypeElement type, PackageElement packageElement) {
+			for (Element e=type; e instanceof TypeElement; e=e.getEnclosingElement()) {
+				final TypeElement t = (TypeElement) e;
+				if (t.getNestingKind() == NestingKind.LOCAL || t.getNestingKind() == NestingKind.ANONYMOUS) return false;
+				if (t.getModifiers().contains(Modifier.PRIVATE)) return false;
+				if (!t.getModifiers().contains(Modifier.PUBLIC) && !packageOf(t).equals(packageElement)) return false;
+			}
+			return true;
+		}
+
+		private static PackageElement packageOf(Element element) {
+			Element result = element;
+			while (!(result instanceof PackageElement)) result = result.getEnclosingElement();
+			return (PackageElement) result;
+		}
+
+		/** Return whether the {@link #type} is a declared type annotated by the given annotation type. */
+		boolean isDeclaredTypeAnnotatedWith(Class<? extends Annotation> annotationType) {
+			return declaredTypeAnnotations.containsKey(annotationType);
+		}
+
+		/** The element itself, only to be used for reporting diagnostics. */
+		final Element element;
+
+		final String name;
+		final boolean isField;
+		final boolean isMethod;
+		final boolean isStatic;
+		final boolean isPrivate;
+		final boolean isFinal;
+		final int parameterCount;
+		final boolean hasParameters;
+		/** Whether it's a method and the enclosing type can be passed as each of its arguments. */
+		final boolean isTakingSelfType;
+		final boolean hasThrownTypes;
+
+		/** The type of the field or the return type of the method. */
+		final TypeMirror type;
+		final TypeKind typeKind;
+		/** The kind of the elements, if the {@link #type} is an array, otherwise {@link TypeKind#NONE}. */
+		final TypeKind componentTypeKind;
+		/** Whether the {@link #type} is an array, whose elements may be arrays, too, as their type is an array or a supertype of arrays. */
+		final boolean mayContainArrays;
+		/**
+		 * The name of the erased {@link #type} or, if it can't be named in the package of the helpers, of its nearest supertype which can.
+		 * The supertype is comparable when the type is.
+		 */
+		final String erasedTypeName;
+		/** Whether the erased {@link #type} itself can be named in the package of the helpers. */
+		final boolean isTypeAccessible;
+
+		final boolean isEnum;
+		final boolean isComparable;
+		final boolean isCharSequence;
+		final boolean isCollection;
+		final boolean isMap;
+		/** Whether the {@link #type} is a {@link java.util.Comparator} applicable to the enclosing type. */
+		final boolean isSelfComparator;
+
+		private final Map<Class<? extends Annotation>, Annotation> annotations;
+		private final Map<Class<? extends Annotation>, Annotation> declaredTypeAnnotations;
+	}
+
+	/** The types the members get checked against, all erased except for {@link #selfComparator}, and the package of the helpers. */
+	private static final class KnownTypes {
+		KnownTypes(ProcessingEnvironment processingEnv, TypeElement typeElement) {
+			final Types typeUtils = processingEnv.getTypeUtils();
+			comparable = erasedType(processingEnv, Comparable.class);
+			charSequence = erasedType(processingEnv, CharSequence.class);
+			collection = erasedType(processingEnv, Collection.class);
+			map = erasedType(processingEnv, Map.class);
+			array = typeUtils.getArrayType(typeUtils.getPrimitiveType(TypeKind.INT));
+			object = erasedType(processingEnv, Object.class);
+			helperPackage = processingEnv.getElementUtils().getPackageOf(typeElement);
+			self = typeUtils.erasure(typeElement.asType());
+			selfComparator = typeUtils.getDeclaredType(processingEnv.getElementUtils().getTypeElement(Comparator.class.getName()),
+					typeUtils.getWildcardType(null, self));
+		}
+
+		private static TypeMirror erasedType(ProcessingEnvironment processingEnv, Class<?> clazz) {
+			return processingEnv.getTypeUtils().erasure(processingEnv.getElementUtils().getTypeElement(clazz.getName()).asType());
+		}
+
+		final TypeMirror comparable;
+		final TypeMirror charSequence;
+		final TypeMirror collection;
+		final TypeMirror map;
+		/** An arbitrary array type. */
+		final TypeMirror array;
+		final TypeMirror object;
+		/** The package the helpers get generated into. */
+		final PackageElement helperPackage;
+		final TypeMirror self;
+		/** {@code Comparator<? super T>}, where {@code T} is the erased {@link #self}. */
+		final TypeMirror selfComparator;
+	}
+
+	TypeModel(ProcessingEnvironment processingEnv, TypeElement typeElement) {
+		this.typeElement = typeElement;
+		qualifiedName = typeElement.getQualifiedName().toString();
+		packageName = packageName(processingEnv, typeElement);
+		saneTypeName = saneTypeName(typeElement);
+		topLevelName = saneTypeName.split("\\.", 2)[0];
+		final KnownTypes knownTypes = new KnownTypes(processingEnv, typeElement);
+		members = Collections.unmodifiableList(typeElement.getEnclosedElements()
+				.stream()
+				.map(e -> new Member(processingEnv, e, knownTypes))
+				.collect(Collectors.toList()));
+		annotations = annotationsOf(typeElement);
+	}
+
+	/** Return the annotation of the given type, which must be one of {@link #ANNOTATION_TYPES}. */
+	<A extends Annotation> A getAnnotation(Class<A> annotationType) {
+		return annotationType.cast(annotations.get(annotationType));
+	}
+
+	static String packageName(ProcessingEnvironment processingEnv, TypeElement type) {
+		return processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+	}
+
+	static String saneTypeName(TypeElement type) {
+		final List<TypeElement> result = new ArrayList<>();
+		for (Element e=type; e instanceof TypeElement; e=e.getEnclosingElement()) result.add((TypeElement) e);
+		Collections.reverse(result);
+		return result.stream().map(TypeElement::getSimpleName).map(Object::toString).collect(Collectors.joining("."));
+	}
+
+	private static Map<Class<? extends Annotation>, Annotation> annotationsOf(Element element) {
+		final Map<Class<? extends Annotation>, Annotation> result = new HashMap<>();
+		for (final Class<? extends Annotation> annotationType : ANNOTATION_TYPES) {
+			final Annotation annotation = element.getAnnotation(annotationType);
+			if (annotation != null) result.put(annotationType, annotation);
+		}
+		return result;
+	}
+
+	/** All annotations any feature may ask for. Other annotations don't get collected. */
+	private static final List<Class<? extends Annotation>> ANNOTATION_TYPES = Arrays.asList(
+			ToString.class, ToString.Include.class, ToString.Exclude.class,
+			MakeComparable.class, MakeComparable.Include.class, MakeComparable.Exclude.class,
+			MakeHashable.class, MakeHashable.Include.class, MakeHashable.Exclude.class);
+
+	/** The element itself, only to be used for reporting diagnostics. */
+	final TypeElement typeElement;
+
+	final String qualifiedName;
+	final String packageName;
+	final String saneTypeName;
+	/** The simple name of the outermost type enclosing this one, or of this type itself, if it's top-level. */
+	final String topLevelName;
+	final List<Member> members;
+
+	private final Map<Class<? extends Annotation>, Annotation> annotations;
+}
@@ -1,111 +1,297 @@
 package de.grajcar.aptlombokdemo.impl;
 
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Predicate;
 
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.TypeElement;
-import javax.lang.model.element.VariableElement;
+import javax.lang.model.util.ElementFilter;
 import javax.tools.Diagnostic;
-import javax.tools.JavaFileObject;
+
+import de.grajcar.aptlombokdemo.HelperMetrics;
+import de.grajcar.aptlombokdemo.MakeHashable;
+import de.grajcar.aptlombokdemo.impl.TypeModel.Member;
 
 public abstract class TypeProcessor {
-	protected TypeProcessor(ProcessingEnvironment processingEnv, TypeElement typeElement) {
+	protected TypeProcessor(ProcessingEnvironment processingEnv, TypeModel model) {
 		this.processingEnv = processingEnv;
-		this.typeElement = typeElement;
-	}
-
-	protected final void process() {
-		final List<Element> elements = collectElements();
-		intro(elements);
-		elements.forEach(this::body);
-		outtro(elements);
-		try {
-
-			final JavaFileObject file = processingEnv.getFiler().createSourceFile(generatedClassName());
-			try (PrintWriter writer = new PrintWriter(file.openWriter())) {
-				writer.println("package " + packageName() + ";");
-				writer.println();
-				imports.forEach(i -> writer.println("import " + i + ";"));
-				writer.println();
-				lines.forEach(writer::println);
-				if (writer.checkError()) throw new IOException("Exception in PrintWriter.");
-			}
-		} catch (final IOException e) {
-			raiseError(typeElement, e.getClass().getName() + ": " + e.getMessage());
-		}
+		this.model = model;
+		typeElement = model.typeElement;
+		aggregated = Boolean.parseBoolean(processingEnv.getOptions().get(DemoProcessor.AGGREGATE_OPTION));
+		metered = Boolean.parseBoolean(processingEnv.getOptions().get(DemoProcessor.METRICS_OPTION));
 	}
 
-	protected abstract String generatedClassName();
+	/** Select the members to be processed. This must be called once before rendering. */
+	final void collect() {
+		members = collectMembers();
+	}
 
-	protected abstract void intro(List<Element> elements);
+	/**
+	 * Generate the members for this type into the given source, which may be shared with other types and features.
+	 * When aggregating, all private members get a prefix derived from the type name in order to avoid name clashes.
+	 *
+	 * <p>This may get called on any thread, so it must neither use the element API nor report diagnostics.
+	 * Everything needed must be taken from the {@link #model} or computed in the constructor or in {@link #collectMembers()}.
+	 */
+	final void render(SourceBuilder source) {
+		this.source = source;
+		memberPrefix = isAggregated() ? saneTypeName().replace(".", "_") + "_" : "";
+		intro(members);
+		members.forEach(this::body);
+		outtro(members);
+	}
 
-	protected abstract void outtro(List<Element> elements);
+	/**
+	 * Let the processor know the classes of the helpers generated in this round, keyed by {@link #helperKey(String, String)},
+	 * and let it find the helpers of other types it calls. This must be called once after {@link #collect()} and before rendering.
+	 */
+	final void resolve(Map<String, String> roundHelpers) {
+		this.roundHelpers = roundHelpers;
+		resolveHelpers(members);
+	}
 
-	protected final void body(Element element) {
-		if (element instanceof VariableElement) {
-			body((VariableElement) element);
-		} else if (element instanceof ExecutableElement) {
-			body((ExecutableElement) element);
-		}
+	static String helperKey(String typeQualifiedName, String feature) {
+		return typeQualifiedName + "/" + feature;
+	}
+
+	final int memberCount() {
+		return members.size();
+	}
+
+	/** Return the name of the feature, e.g., "ToString", which is also used in the name of the generated class. */
+	protected abstract String feature();
+
+	protected final String generatedClassName() {
+		return helperClassName(packageName(), saneTypeName(), feature());
 	}
 
-	protected abstract void body(VariableElement element);
+	protected abstract void intro(List<Member> members);
 
-	protected abstract void body(ExecutableElement element);
+	protected abstract void outtro(List<Member> members);
 
-	protected abstract List<Element> collectElements();
+	protected abstract void body(Member member);
+
+	/** Return the fields and methods to be processed, reporting all problems with them. */
+	protected abstract List<Member> collectMembers();
+
+	/** Find the helpers of other types to be called by the generated code, see {@link #findHelperClassName}. There are none by default. */
+	protected void resolveHelpers(List<Member> members) {
+	}
 
 	protected final String packageName() {
-		return processingEnv.getElementUtils().getPackageOf(typeElement).getQualifiedName().toString();
+		return model.packageName;
 	}
 
 	protected final String saneTypeName() {
-		final List<TypeElement> result = new ArrayList<>();
-		for (Element e=typeElement; e instanceof TypeElement; e=e.getEnclosingElement()) result.add((TypeElement) e);
-		Collections.reverse(result);
-		return result.stream().map(TypeElement::getSimpleName).map(Object::toString).collect(Collectors.joining("."));
+		return model.saneTypeName;
 	}
 
-	protected final void addImport(Class<?> clazz) {
-		addImport(clazz.getName());
+	/** Return whether the helpers for all types of a package get generated into a single class. */
+	protected final boolean isAggregated() {
+		return aggregated;
 	}
 
-	protected final void addImport(String name) {
-		imports.add(name);
+	/**
+	 * Return whether the member is the field caching the hash code declared by {@link MakeHashable#cacheField()}.
+	 * Its value changes when the hash code gets computed, so no feature may use it.
+	 */
+	protected final boolean isHashCodeCache(Member member) {
+		final MakeHashable makeHashableAnn = model.getAnnotation(MakeHashable.class);
+		return makeHashableAnn != null && member.isField && member.name.equals(makeHashableAnn.cacheField());
 	}
 
-	protected final void append(Object... parts) {
-		final StringBuilder sb = new StringBuilder();
-		for (final Object p : parts) {
-			if (p instanceof Class) {
-				sb.append(((Class<?>) p).getName());
+	/** Return whether the generated methods should count their invocations, see {@link DemoProcessor#METRICS_OPTION}. */
+	protected final boolean isMetered() {
+		return metered;
+	}
+
+	/**
+	 * Return the expression for the metrics of this type and feature, whose field gets generated by {@link #appendMetrics()}.
+	 * It contains the feature, as all features of a type share the same prefix when aggregating.
+	 */
+	protected final String metrics() {
+		return isAggregated() ? metricsHolder() + ".INSTANCE" : privateName(feature().toUpperCase(Locale.ROOT) + "_METRICS");
+	}
+
+	/**
+	 * Generate the field holding the metrics, which get registered when the class gets initialized.
+	 * When aggregating, the class gets initialized when any type of the package gets used, so every type and feature gets a holder class.
+	 */
+	protected final void appendMetrics() {
+		final String creation = HelperMetrics.class.getName() + ".of(\"" + model.qualifiedName + "\", \"" + feature() + "\")";
+		append();
+		if (!isAggregated()) {
+			append("private static final ", HelperMetrics.class, " ", metrics(), " = ", creation, ";");
+			return;
+		}
+		append("private static final class ", metricsHolder(), " {");
+		append("static final ", HelperMetrics.class, " INSTANCE = ", creation, ";");
+		append("}");
+	}
+
+	private String metricsHolder() {
+		return privateName(feature() + "Metrics");
+	}
+
+	/** Return the fully qualified name of the class containing the helper methods for the given type and feature. */
+	protected final String helperClassName(String packageName, String saneTypeName, String feature) {
+		return isAggregated() ? qualify(packageName, DemoProcessor.aggregatedClassName(1)) : standaloneHelperClassName(packageName, saneTypeName, feature);
+	}
+
+	private static String standaloneHelperClassName(String packageName, String saneTypeName, String feature) {
+		return qualify(packageName, "_" + saneTypeName.replace(".", "_") + "_" + feature + "Helper");
+	}
+
+	private static String qualify(String packageName, String simpleName) {
+		return packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+	}
+
+	/**
+	 * Return the fully qualified name of the class containing the given helper method of the given type and feature, or null, if there's none.
+	 * The helper gets found when it's generated in this round or when it was compiled before in either mode,
+	 * so that the result doesn't depend on which types get compiled together, as needed for incremental builds.
+	 * A class compiled before gets used only if it contains a method satisfying the predicate, as it may come from an older version.
+	 * This uses the element API, so it must be called only from {@link #resolveHelpers(List)}.
+	 */
+	protected final String findHelperClassName(TypeElement type, String feature, Predicate<ExecutableElement> isHelperMethod) {
+		final String roundHelper = roundHelpers.get(helperKey(type.getQualifiedName().toString(), feature));
+		if (roundHelper != null) return roundHelper;
+		final String packageName = TypeModel.packageName(processingEnv, type);
+		final String standaloneName = standaloneHelperClassName(packageName, TypeModel.saneTypeName(type), feature);
+		if (!isAggregated() && containsHelperMethod(standaloneName, isHelperMethod)) return standaloneName;
+		// An aggregated helper generated in this round doesn't exist yet and it's the last one of its package.
+		for (int count=1; ; ++count) {
+			final String name = qualify(packageName, DemoProcessor.aggregatedClassName(count));
+			if (roundHelpers.containsValue(name) || processingEnv.getElementUtils().getTypeElement(name) == null) break;
+			if (containsHelperMethod(name, isHelperMethod)) return name;
+		}
+		if (isAggregated() && containsHelperMethod(standaloneName, isHelperMethod)) return standaloneName;
+		return null;
+	}
+
+	private boolean containsHelperMethod(String className, Predicate<ExecutableElement> isHelperMethod) {
+		final TypeElement helper = processingEnv.getElementUtils().getTypeElement(className);
+		return helper != null && ElementFilter.methodsIn(helper.getEnclosedElements()).stream().anyMatch(isHelperMethod);
+	}
+
+	/**
+	 * Return an expression evaluating to the value of the member for the given object.
+	 * Members visible from the helper are accessed directly, others via an accessor generated by {@link #appendAccessors(List)}.
+	 * Static members get accessed via the type, so that the generated code doesn't trigger any lint warnings.
+	 */
+	protected final String valueOf(Member member, String object) {
+		if (needsHandle(member)) return accessorName(member) + "(" + object + ")";
+		return (member.isStatic ? model.qualifiedName : object) + "." + member.name + (member.isMethod ? "()" : "");
+	}
+
+	/** Generate the method handles and accessors needed by {@link #valueOf(Member, String)} for members not visible from the helper. */
+	protected final void appendAccessors(List<Member> members) {
+		final String typeFqn = model.qualifiedName;
+		boolean needsFieldGetter = false;
+		boolean needsMethodGetter = false;
+		for (final Member member : members) {
+			if (!needsHandle(member)) continue;
+			final String type = member.erasedTypeName;
+			needsFieldGetter |= member.isField;
+			needsMethodGetter |= !member.isField;
+			if (!source.declare(handleName(member))) continue;
+
+			append();
+			append("private static final ", MethodHandle.class, " ", handleName(member), " = ",
+					member.isField ? "fieldGetter" : "methodGetter", "(", typeFqn, ".class, \"", member.name, "\");");
+			append();
+			append("private static ", type, " ", accessorName(member), "(", typeFqn, " object) {");
+			append("try {");
+			// The handles are erased, so that javac sees only a few distinct invokeExact signatures.
+			// Resolving each distinct signature scans all the previous ones, which made big compilations quadratic.
+			// A handle for a static member takes no receiver, the object is passed to the accessor only for uniformity.
+			final String invocation = handleName(member) + ".invokeExact(" + (member.isStatic ? "" : "(" + Object.class.getName() + ") object") + ")";
+			if (member.typeKind.isPrimitive()) {
+				append("return (", type, ") ", invocation, ";");
 			} else {
-				sb.append(p);
+				append("return (", type, ") (", Object.class, ") ", invocation, ";");
 			}
+			append("} catch (", RuntimeException.class, " | ", Error.class, " e) {");
+			append("throw e;");
+			append("} catch (", Throwable.class, " e) {");
+			append("throw new ", RuntimeException.class, "(e);");
+			append("}");
+			append("}");
+		}
+
+		if (needsFieldGetter && source.declare("fieldGetter")) {
+			append();
+			append("private static ", MethodHandle.class, " fieldGetter(", Class.class, "<?> type, ", String.class, " name) {");
+			append("try {");
+			append(Field.class, " f = type.getDeclaredField(name);");
+			append("f.setAccessible(true);");
+			append(MethodHandle.class, " h = ", MethodHandles.class, ".lookup().unreflectGetter(f);");
+			append("return h.asType(h.type().erase());");
+			append("} catch (", ReflectiveOperationException.class, " e) {");
+			append("throw new ", ExceptionInInitializerError.class, "(e);");
+			append("}");
+			append("}");
+		}
+
+		if (needsMethodGetter && source.declare("methodGetter")) {
+			append();
+			append("private static ", MethodHandle.class, " methodGetter(", Class.class, "<?> type, ", String.class, " name) {");
+			append("try {");
+			append(Method.class, " m = type.getDeclaredMethod(name);");
+			append("m.setAccessible(true);");
+			append(MethodHandle.class, " h = ", MethodHandles.class, ".lookup().unreflect(m);");
+			append("return h.asType(h.type().erase());");
+			append("} catch (", ReflectiveOperationException.class, " e) {");
+			append("throw new ", ExceptionInInitializerError.class, "(e);");
+			append("}");
+			append("}");
 		}
-		appendInternal(sb.toString());
 	}
 
-	private void appendInternal(String line) {
-		if (line.startsWith("}")) --indent;
-		lines.add((line.isEmpty() ? "" : indentation()) + line);
-		if (line.endsWith("{")) ++indent;
+	/**
+	 * Private members aren't visible from the helper.
+	 * Methods throwing checked exceptions would need a try-catch around each call, so they go through a handle, too.
+	 */
+	private boolean needsHandle(Member member) {
+		return member.isPrivate || member.hasThrownTypes;
 	}
 
-	private String indentation() {
-		final char[] result = new char[indent];
-		Arrays.fill(result, '\t');
-		return new String(result);
+	private String handleName(Member member) {
+		return privateName((member.isField ? "FIELD_" : "METHOD_") + member.name);
+	}
+
+	private String accessorName(Member member) {
+		return privateName((member.isField ? "field_" : "method_") + member.name);
+	}
+
+	/** Return the name to be used for a private member specific to this type, so that it doesn't clash when aggregating. */
+	protected final String privateName(String name) {
+		return memberPrefix + name;
+	}
+
+	protected final void addImport(Class<?> clazz) {
+		addImport(clazz.getName());
+	}
+
+	protected final void addImport(String name) {
+		source.addImport(name);
+	}
+
+	/** See {@link SourceBuilder#declare(String)}. */
+	protected final boolean declare(String memberName) {
+		return source.declare(memberName);
+	}
+
+	protected final void append(Object... parts) {
+		source.append(parts);
 	}
 
 	protected final void raiseWarning(Element element, String message) {
@@ -117,9 +303,13 @@ public abstract class TypeProcessor {
 	}
 
 	protected final ProcessingEnvironment processingEnv;
+	protected final TypeModel model;
 	protected final TypeElement typeElement;
+	private final boolean aggregated;
+	private final boolean metered;
 
-	private final List<String> lines = new ArrayList<>();
-	private final Set<String> imports = new HashSet<>();
-	private int indent;
+	private List<Member> members;
+	private Map<String, String> roundHelpers;
+	private SourceBuilder source;
+	private String memberPrefix;
 }
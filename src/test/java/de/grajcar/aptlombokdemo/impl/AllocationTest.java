@@ -0,0 +1,190 @@
+package de.grajcar.aptlombokdemo.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Checks the bytes allocated per call by the helpers generated for the JMH fixtures of {@link Fixtures}.
+ * The JMH benchmarks report {@code gc.alloc.rate.norm} too, but nothing fails when it grows.
+ *
+ * <p>The bytes get measured by the {@link ThreadMXBean} after a warm-up, taking the minimum of a few rounds,
+ * so that the JIT has a chance to remove whatever it would remove in production.
+ * As this needs the JIT to have reached its final code, these tests get run by the {@code allocationTest} task compiling synchronously only.
+ *
+ * <p>The budgets are the bytes the helpers can't avoid allocating, computed from their results
+ * for compressed oops and compact strings, the defaults of a 64-bit JVM with a heap below 32 GB.
+ * The JIT may eliminate some of them, so less is fine.
+ */
+@Tag("allocation")
+class AllocationTest {
+	private interface Call {
+		int call() throws Throwable;
+	}
+
+	@Test void toStringOfFields1() throws Throwable {
+		checkConcatenatedToString("Fields1");
+	}
+
+	@Test void toStringOfFields4() throws Throwable {
+		checkConcatenatedToString("Fields4");
+	}
+
+	@Test void toStringOfFields8() throws Throwable {
+		checkConcatenatedToString("Fields8");
+	}
+
+	@Test void toStringOfFields16() throws Throwable {
+		checkConcatenatedToString("Fields16");
+	}
+
+	@Test void toStringOfMethods() throws Throwable {
+		checkConcatenatedToString("Methods");
+	}
+
+	@Test void toStringOfFields64() throws Throwable {
+		checkBuiltToString("Fields64");
+	}
+
+	@Test void toStringOfNested() throws Throwable {
+		checkBuiltToString("Nested");
+	}
+
+	/** Only the floating point members need a temporary string, everything else gets put into the buffer directly. */
+	@Test void writeToOfFields16() throws Throwable {
+		final Object object = Fixtures.create("Fields16", 42);
+		final MethodHandle writeTo = Fixtures.helper("Fields16", "ToString", "writeTo", 2);
+		final ByteBuffer buffer = ByteBuffer.allocate(1024);
+		final long bytes = bytesPerCall(() -> {
+			buffer.clear();
+			return (boolean) writeTo.invokeExact(object, (Object) buffer) ? 1 : 0;
+		});
+		assertWithinBudget(floatingPointStringBytes(object), bytes);
+	}
+
+	@Test void compareOfFields1() throws Throwable {
+		checkCompare("Fields1");
+	}
+
+	@Test void compareOfFields8() throws Throwable {
+		checkCompare("Fields8");
+	}
+
+	@Test void compareOfFields64() throws Throwable {
+		checkCompare("Fields64");
+	}
+
+	@Test void compareOfNested() throws Throwable {
+		checkCompare("Nested");
+	}
+
+	@Test void compareOfMethods() throws Throwable {
+		checkCompare("Methods");
+	}
+
+	/**
+	 * Check a fixture with few enough members for being concatenated by {@code StringConcatFactory},
+	 * which allocates the result only, after converting the floating point members to temporary strings.
+	 */
+	private void checkConcatenatedToString(String fixture) throws Throwable {
+		assertFalse(Fixtures.compiled().generatedSources.get(Fixtures.helperClassName(fixture, "ToString")).contains("new java.lang.StringBuilder()"));
+		final Object object = Fixtures.create(fixture, 42);
+		final long bytes = toStringBytesPerCall(fixture, object);
+		assertWithinBudget(stringBytes((String) lastResult) + floatingPointStringBytes(object), bytes);
+	}
+
+	/**
+	 * Check a fixture with too many members or nested types for being concatenated, which appends to a new {@link StringBuilder}
+	 * appending the floating point members without any temporary string, and copies its contents to the result.
+	 * The builder starts with a capacity of 16 and grows to twice the capacity plus two whenever it's too small,
+	 * which it does in steps small enough for never needing more.
+	 */
+	private void checkBuiltToString(String fixture) throws Throwable {
+		assertTrue(Fixtures.compiled().generatedSources.get(Fixtures.helperClassName(fixture, "ToString")).contains("new java.lang.StringBuilder()"));
+		final long bytes = toStringBytesPerCall(fixture, Fixtures.create(fixture, 42));
+		final int length = ((String) lastResult).length();
+		long budget = BUILDER_BYTES + stringBytes((String) lastResult);
+		for (int capacity=16; ; capacity=2*capacity+2) {
+			budget += arrayBytes(capacity);
+			if (capacity >= length) break;
+		}
+		assertWithinBudget(budget, bytes);
+	}
+
+	private void checkCompare(String fixture) throws Throwable {
+		final Object first = Fixtures.create(fixture, 42);
+		final Object second = Fixtures.create(fixture, 42);
+		final MethodHandle compare = Fixtures.helper(fixture, "MakeComparable", "compare", 2);
+		assertEquals(0, bytesPerCall(() -> (int) compare.invokeExact(first, second)));
+	}
+
+	private long toStringBytesPerCall(String fixture, Object object) throws Throwable {
+		final MethodHandle toString = Fixtures.helper(fixture, "ToString", "toString", 1);
+		return bytesPerCall(() -> {
+			lastResult = (Object) toString.invokeExact(object);
+			return 0;
+		});
+	}
+
+	private static void assertWithinBudget(long budget, long bytes) {
+		assertTrue(bytes <= budget, () -> bytes + " bytes per call exceed the budget of " + budget + ".");
+	}
+
+	/** Return the bytes of the temporary strings of the float and double fields of the object. */
+	private static long floatingPointStringBytes(Object object) throws IllegalAccessException {
+		long result = 0;
+		for (final Field f : Fixtures.instanceFields(object.getClass())) {
+			if (f.getType() == double.class || f.getType() == float.class) result += stringBytes(String.valueOf(f.get(object)));
+		}
+		return result;
+	}
+
+	/** Return the bytes of the Latin-1 string and its array. */
+	private static long stringBytes(String string) {
+		return STRING_BYTES + arrayBytes(string.length());
+	}
+
+	private static long arrayBytes(int length) {
+		return (ARRAY_HEADER_BYTES + length + 7) & ~7;
+	}
+
+	/** Return the number of bytes allocated per call, without the cost of measuring, which is about zero anyway. */
+	private long bytesPerCall(Call call) throws Throwable {
+		for (int i=0; i<WARMUP_CALLS; ++i) sink += call.call();
+		long result = Long.MAX_VALUE;
+		for (int round=0; round<ROUNDS; ++round) result = Math.min(result, allocatedBytes(call) - allocatedBytes(() -> 0));
+		return Math.max(0, Math.round((double) result / MEASURED_CALLS));
+	}
+
+	private long allocatedBytes(Call call) throws Throwable {
+		final long threadId = Thread.currentThread().getId();
+		final long start = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+		for (int i=0; i<MEASURED_CALLS; ++i) sink += call.call();
+		return THREAD_MX_BEAN.getThreadAllocatedBytes(threadId) - start;
+	}
+
+	private static final ThreadMXBean THREAD_MX_BEAN = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+	private static final int WARMUP_CALLS = 200_000;
+	private static final int MEASURED_CALLS = 100_000;
+	private static final int ROUNDS = 5;
+	/** The header, the array reference, the hash, the coder and the flag for a zero hash, padded to eight bytes. */
+	private static final int STRING_BYTES = 24;
+	/** The header, the array reference, the coder and the count, padded to eight bytes. */
+	private static final int BUILDER_BYTES = 24;
+	/** The header including the length. */
+	private static final int ARRAY_HEADER_BYTES = 16;
+
+	/** Keeps the results alive, so that their allocation can't be eliminated. */
+	private Object lastResult;
+	private int sink;
+}
@@ -0,0 +1,106 @@
+package de.grajcar.aptlombokdemo.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.tools.JavaFileObject;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DemoProcessorTest {
+	@Test void nestedAnnotationsGetClaimed() throws Exception {
+		final TestCompiler.Result result = TestCompiler.compile(Collections.emptyMap(), Collections.singletonList(TestCompiler.source("p.A", "package p;\n"
+				+ "@de.grajcar.aptlombokdemo.ToString @de.grajcar.aptlombokdemo.MakeComparable @de.grajcar.aptlombokdemo.MakeHashable\n"
+				+ "@de.grajcar.aptlombokdemo.ToString.Exclude @de.grajcar.aptlombokdemo.MakeComparable.Exclude @de.grajcar.aptlombokdemo.MakeHashable.Exclude\n"
+				+ "public class A {\n"
+				+ "\t@de.grajcar.aptlombokdemo.ToString.Include @de.grajcar.aptlombokdemo.MakeComparable.Include @de.grajcar.aptlombokdemo.MakeHashable.Include int a;\n"
+				+ "}\n")));
+		assertEquals(Collections.emptyList(), result.warnings);
+	}
+
+	@Test void aggregatingGeneratesOneHelperPerPackage() throws Exception {
+		final List<JavaFileObject> sources = Arrays.asList(
+				TestCompiler.source("p.A", "package p;\n@de.grajcar.aptlombokdemo.ToString @de.grajcar.aptlombokdemo.MakeComparable public class A { private int a = 1; }\n"),
+				TestCompiler.source("p.B", "package p;\n@de.grajcar.aptlombokdemo.ToString public class B { private String b = \"x\"; }\n"),
+				TestCompiler.source("q.C", "package q;\n@de.grajcar.aptlombokdemo.ToString public class C { int c = 3; }\n"));
+		final TestCompiler.Result standalone = TestCompiler.compile(Collections.emptyMap(), sources);
+		final TestCompiler.Result aggregated = TestCompiler.compile(Collections.singletonMap(DemoProcessor.AGGREGATE_OPTION, "true"), sources);
+		assertEquals(Arrays.asList("p._A_MakeComparableHelper", "p._A_ToStringHelper", "p._B_ToStringHelper", "q._C_ToStringHelper"), new ArrayList<>(standalone.generatedSources.keySet()));
+		assertEquals(Arrays.asList("p._PackageHelper", "q._PackageHelper"), new ArrayList<>(aggregated.generatedSources.keySet()));
+		// The accessor of the private field gets shared by both features.
+		assertEquals(1, aggregated.generatedSources.get("p._PackageHelper").split("private static int A_field_a\\(", -1).length - 1);
+
+		assertEquals("A(a=1)", aggregated.call("p._PackageHelper", "toString", aggregated.newInstance("p.A")));
+		assertEquals("B(b=x)", aggregated.call("p._PackageHelper", "toString", aggregated.newInstance("p.B")));
+		assertEquals("C(c=3)", aggregated.call("q._PackageHelper", "toString", aggregated.newInstance("q.C")));
+		assertEquals(0, aggregated.call("p._PackageHelper", "compare", aggregated.newInstance("p.A"), aggregated.newInstance("p.A")));
+		assertEquals(standalone.call("p._A_ToStringHelper", "toString", standalone.newInstance("p.A")), aggregated.call("p._PackageHelper", "toString", aggregated.newInstance("p.A")));
+	}
+
+	@Test void statsGetWrittenAsCsv(@TempDir Path directory) throws Exception {
+		final Path file = directory.resolve("stats.csv");
+		final TestCompiler.Result result = TestCompiler.compile(Collections.singletonMap(DemoProcessor.STATS_OPTION, file.toString()), Collections.singletonList(
+				TestCompiler.source("p.A", "package p;\n@de.grajcar.aptlombokdemo.ToString @de.grajcar.aptlombokdemo.MakeComparable public class A { int a; String b; }\n")));
+		final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		assertEquals("round,type,feature,totalNanos,modelNanos,collectNanos,renderNanos,writeNanos,members,lines,bytes", lines.get(0));
+		final Map<String, String[]> rows = lines.stream().skip(1).map(line -> line.split(",", -1)).filter(row -> !row[2].equals("round"))
+				.collect(Collectors.toMap(row -> row[1] + "/" + row[2], row -> row));
+		assertEquals(new HashSet<>(Arrays.asList("p.A/model", "p.A/ToString", "p.A/MakeComparable")), rows.keySet());
+		final String[] toString = rows.get("p.A/ToString");
+		assertEquals("1", toString[0]);
+		assertEquals("2", toString[8]);
+		assertEquals(result.generatedSources.get("p._A_ToStringHelper").getBytes(StandardCharsets.UTF_8).length, Long.parseLong(toString[10]));
+		final String[] firstRound = lines.stream().map(line -> line.split(",", -1)).filter(row -> row[2].equals("round")).findFirst().get();
+		assertEquals("1", firstRound[0]);
+		assertTrue(Long.parseLong(firstRound[3]) >= Long.parseLong(toString[3]));
+	}
+
+	@Test void reusedBufferGivesTheSameSourcesAsSeparateCompilations() throws Exception {
+		final List<JavaFileObject> sources = Arrays.asList(
+				TestCompiler.source("p.Large", "package p;\n@de.grajcar.aptlombokdemo.ToString @de.grajcar.aptlombokdemo.MakeComparable public class Large {\n"
+						+ IntStream.range(0, 100).mapToObj(i -> "\tprivate int f" + i + ";\n").collect(Collectors.joining())
+						+ "}\n"),
+				TestCompiler.source("p.Small", "package p;\n@de.grajcar.aptlombokdemo.ToString public class Small { int s; }\n"));
+		final Map<String, String> together = TestCompiler.compile(Collections.emptyMap(), sources).generatedSources;
+		final Map<String, String> separately = new TreeMap<>();
+		for (final JavaFileObject source : sources) separately.putAll(TestCompiler.compile(Collections.emptyMap(), Collections.singletonList(source)).generatedSources);
+		assertEquals(separately, together);
+		assertTrue(together.get("p._Small_ToStringHelper").startsWith("package p;\n"));
+		assertFalse(together.get("p._Small_ToStringHelper").contains("f99"));
+	}
+
+	@Test void parallelRenderingGivesTheSameSources() throws Exception {
+		final List<JavaFileObject> sources = IntStream.range(0, 40)
+				.mapToObj(i -> TestCompiler.source("p" + i % 3 + ".T" + i, "package p" + i % 3 + ";\n"
+						+ "@de.grajcar.aptlombokdemo.ToString @de.grajcar.aptlombokdemo.MakeComparable public class T" + i + " {\n"
+						+ IntStream.range(0, i).mapToObj(j -> "\tprivate long f" + j + ";\n").collect(Collectors.joining())
+						+ "}\n"))
+				.collect(Collectors.toList());
+		for (final String aggregate : Arrays.asList("false", "true")) {
+			final Map<String, String> options = new HashMap<>();
+			options.put(DemoProcessor.AGGREGATE_OPTION, aggregate);
+			final TestCompiler.Result sequential = TestCompiler.compile(options, sources);
+			options.put(DemoProcessor.PARALLELISM_OPTION, "4");
+			final TestCompiler.Result parallel = TestCompiler.compile(options, sources);
+			assertEquals(sequential.generatedSources, parallel.generatedSources);
+			assertEquals(sequential.originatingTypes, parallel.originatingTypes);
+			assertEquals(Collections.emptyList(), parallel.warnings);
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package de.grajcar.aptlombokdemo.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Compares the helpers generated for the JMH fixtures against the reflective reference of {@link Fixtures}.
+ * The methods and the excluded members of {@code Methods} and {@code Nested} are invisible to reflection,
+ * as the annotations aren't retained, so their hand-written equivalents serve as the reference instead.
+ */
+class FixtureResultTest {
+	private interface Reference {
+		int compare(Object first, Object second) throws Exception;
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {"Fields1", "Fields4", "Fields8", "Fields16", "Fields64", "Nested"})
+	void toStringAgreesWithReflection(String fixture) throws Exception {
+		final Object object = Fixtures.create(fixture, 42);
+		assertEquals(Fixtures.reflectiveToString(object), Fixtures.compiled().call(Fixtures.helperClassName(fixture, "ToString"), "toString", object));
+	}
+
+	@Test void toStringOfMethodsAgreesWithHandWritten() throws Exception {
+		final Object object = Fixtures.create("Methods", 42);
+		assertEquals(object.getClass().getMethod("handWrittenToString").invoke(object), Fixtures.compiled().call(Fixtures.helperClassName("Methods", "ToString"), "toString", object));
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {"Fields1", "Fields8", "Fields64"})
+	void compareAgreesWithReflection(String fixture) throws Exception {
+		checkCompare(fixture, Fixtures::reflectiveCompare);
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {"Nested", "Methods"})
+	void compareAgreesWithHandWritten(String fixture) throws Exception {
+		checkCompare(fixture, (first, second) -> (int) Fixtures.compiled().call(Fixtures.PACKAGE + fixture, "handWrittenCompare", first, second));
+	}
+
+	/** Compare objects differing in a single field, in turn for each field, or whole objects for fixtures with final fields. */
+	private static void checkCompare(String fixture, Reference reference) throws Exception {
+		final Object first = Fixtures.create(fixture, 42);
+		final List<Field> fields = Fixtures.instanceFields(first.getClass());
+		final boolean isMutable = fields.stream().noneMatch(f -> Modifier.isFinal(f.getModifiers()));
+		for (int seed=0; seed<100; ++seed) {
+			final Object other = Fixtures.create(fixture, seed);
+			for (int i=0; i<(isMutable ? fields.size() : 1); ++i) {
+				final Object second = isMutable ? Fixtures.create(fixture, 42) : other;
+				if (isMutable) fields.get(i).set(second, fields.get(i).get(other));
+				assertEquals(Integer.signum(reference.compare(first, second)), Integer.signum(compare(fixture, first, second)));
+				assertEquals(Integer.signum(reference.compare(second, first)), Integer.signum(compare(fixture, second, first)));
+			}
+		}
+	}
+
+	private static int compare(String fixture, Object first, Object second) throws Exception {
+		return (int) Fixtures.compiled().call(Fixtures.helperClassName(fixture, "MakeComparable"), "compare", first, second);
+	}
+}
@@ -0,0 +1,101 @@
+package de.grajcar.aptlombokdemo.impl;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.tools.JavaFileObject;
+
+/**
+ * The fixtures of the JMH benchmarks, compiled once with the processor in-process, and a reflective reference for their helpers.
+ * The benchmarks themselves don't get compiled, as they need JMH.
+ */
+final class Fixtures {
+	static final String PACKAGE = "de.grajcar.aptlombokdemo.jmh.";
+	private static final String[] NAMES = {"Fields1", "Fields4", "Fields8", "Fields16", "Fields64", "Nested", "Methods"};
+
+	private Fixtures() {
+	}
+
+	static synchronized TestCompiler.Result compiled() throws IOException {
+		if (compiled == null) {
+			final Path sourceRoot = Paths.get(System.getProperty("aptlombokdemo.fixtures"));
+			final List<JavaFileObject> sources = new ArrayList<>();
+			for (final String name : NAMES) sources.add(TestCompiler.source(sourceRoot, PACKAGE + name));
+			compiled = TestCompiler.compile(Collections.emptyMap(), sources);
+		}
+		return compiled;
+	}
+
+	/** Return a new instance of the fixture with the given simple name. */
+	static Object create(String fixture, int seed) throws Exception {
+		return compiled().newInstance(PACKAGE + fixture, seed);
+	}
+
+	/** Return the name of the standalone helper of the fixture for the feature. */
+	static String helperClassName(String fixture, String feature) {
+		return PACKAGE + "_" + fixture + "_" + feature + "Helper";
+	}
+
+	/**
+	 * Return the public static method of the helper with the given name and number of parameters, the first of which is the fixture,
+	 * with all reference types erased to {@code Object}, so that it can be called by {@link MethodHandle#invokeExact} without knowing the fixture.
+	 */
+	static MethodHandle helper(String fixture, String feature, String methodName, int parameterCount) throws Exception {
+		final Class<?> type = compiled().classLoader().loadClass(PACKAGE + fixture);
+		final List<Method> methods = Arrays.stream(compiled().classLoader().loadClass(helperClassName(fixture, feature)).getMethods())
+				.filter(m -> m.getName().equals(methodName) && m.getParameterCount() == parameterCount && m.getParameterTypes()[0] == type)
+				.collect(Collectors.toList());
+		if (methods.size() != 1) throw new AssertionError("No unique " + methodName + " in " + methods);
+		final MethodHandle result = MethodHandles.publicLookup().unreflect(methods.get(0));
+		return result.asType(result.type().erase());
+	}
+
+	/** Return the non-static fields in declaration order, which is what reflection returns in practice. */
+	static List<Field> instanceFields(Class<?> type) {
+		final List<Field> result = new ArrayList<>();
+		for (final Field f : type.getDeclaredFields()) {
+			if (Modifier.isStatic(f.getModifiers())) continue;
+			f.setAccessible(true);
+			result.add(f);
+		}
+		return result;
+	}
+
+	/** Format all fields like the generated helpers do, recursing into the fixtures, as they're all annotated with {@code ToString}. */
+	static String reflectiveToString(Object object) throws IllegalAccessException {
+		if (object == null || !object.getClass().getName().startsWith(PACKAGE)) {
+			if (object instanceof Object[]) return Arrays.deepToString((Object[]) object);
+			if (object instanceof int[]) return Arrays.toString((int[]) object);
+			return String.valueOf(object);
+		}
+		final StringBuilder result = new StringBuilder(object.getClass().getSimpleName()).append("(");
+		for (final Field f : instanceFields(object.getClass())) {
+			if (result.charAt(result.length() - 1) != '(') result.append(", ");
+			result.append(f.getName()).append("=").append(reflectiveToString(f.get(object)));
+		}
+		return result.append(")").toString();
+	}
+
+	/** Compare all fields in declaration order using their natural ordering. */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	static int reflectiveCompare(Object first, Object second) throws IllegalAccessException {
+		for (final Field f : instanceFields(first.getClass())) {
+			final int result = ((Comparable) f.get(first)).compareTo(f.get(second));
+			if (result != 0) return result;
+		}
+		return 0;
+	}
+
+	private static TestCompiler.Result compiled;
+}
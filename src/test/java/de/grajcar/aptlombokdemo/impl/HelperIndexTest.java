@@ -0,0 +1,67 @@
+package de.grajcar.aptlombokdemo.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import javax.tools.JavaFileObject;
+
+import org.junit.jupiter.api.Test;
+
+import de.grajcar.aptlombokdemo.Helpers;
+
+class HelperIndexTest {
+	private static final List<JavaFileObject> SOURCES = Arrays.asList(
+			TestCompiler.source("p.A", "package p;\n@de.grajcar.aptlombokdemo.ToString @de.grajcar.aptlombokdemo.MakeComparable public class A {\n"
+					+ "\tpublic A(int a) { this.a = a; }\n"
+					+ "\tint a;\n"
+					+ "\t@de.grajcar.aptlombokdemo.ToString public static class B { int b = 2; }\n"
+					+ "}\n"),
+			TestCompiler.source("p.C", "package p;\npublic class C { }\n"));
+
+	@Test void helpersFindTheIndexedHelpers() throws Exception {
+		final TestCompiler.Result result = TestCompiler.compile(Collections.singletonMap(DemoProcessor.INDEX_OPTION, "true"), SOURCES);
+		assertEquals(Arrays.asList("p.A", "p.A.B"), result.originatingTypes.get("p._A_HelperIndex"));
+		assertFalse(result.originatingTypes.containsKey("p._C_HelperIndex"));
+
+		final Class<?> a = result.classLoader().loadClass("p.A");
+		final Class<?> b = result.classLoader().loadClass("p.A$B");
+		assertEquals("A(a=1)", apply(Helpers.toStringFor(a), result.newInstance("p.A", 1)));
+		assertEquals("A.B(b=2)", apply(Helpers.toStringFor(b), result.newInstance("p.A$B")));
+		assertEquals(-1, compare(Helpers.comparatorFor(a), result.newInstance("p.A", 1), result.newInstance("p.A", 2)));
+		assertNull(Helpers.comparatorFor(b));
+		assertNull(Helpers.toStringFor(result.classLoader().loadClass("p.C")));
+	}
+
+	@Test void aggregatedHelpersGetIndexedToo() throws Exception {
+		final Map<String, String> options = new HashMap<>();
+		options.put(DemoProcessor.AGGREGATE_OPTION, "true");
+		options.put(DemoProcessor.INDEX_OPTION, "true");
+		final TestCompiler.Result result = TestCompiler.compile(options, SOURCES);
+		assertEquals("A(a=1)", apply(Helpers.toStringFor(result.classLoader().loadClass("p.A")), result.newInstance("p.A", 1)));
+	}
+
+	@Test void nothingGetsIndexedByDefault() throws Exception {
+		final TestCompiler.Result result = TestCompiler.compile(Collections.emptyMap(), SOURCES);
+		assertFalse(result.generatedSources.containsKey("p._A_HelperIndex"));
+		assertNull(Helpers.toStringFor(result.classLoader().loadClass("p.A")));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static String apply(Function<?, String> function, Object object) {
+		return ((Function<Object, String>) function).apply(object);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static int compare(Comparator<?> comparator, Object first, Object second) {
+		return ((Comparator<Object>) comparator).compare(first, second);
+	}
+}
@@ -0,0 +1,57 @@
+package de.grajcar.aptlombokdemo.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import de.grajcar.aptlombokdemo.HelperMetrics;
+
+/** The metrics are global, so every test uses types of its own package. */
+class HelperMetricsTest {
+	@Test void helpersCountInvocationsAndChars() throws Exception {
+		final TestCompiler.Result result = compile("standalone", false);
+		final Object used = result.newInstance("standalone.Used");
+		assertEquals("Used(x=1)", result.call("standalone._Used_ToStringHelper", "toString", used));
+		assertEquals("Used(x=1)", result.call("standalone._Used_ToStringHelper", "toString", used));
+		assertEquals(0, result.call("standalone._Used_MakeComparableHelper", "compare", used, used));
+
+		final Map<String, HelperMetrics> metrics = metrics("standalone.");
+		assertEquals(Arrays.asList("standalone.Used/MakeComparable", "standalone.Used/ToString"), metrics.keySet().stream().sorted().collect(Collectors.toList()));
+		assertEquals(2, metrics.get("standalone.Used/ToString").invocations());
+		assertEquals(2 * "Used(x=1)".length(), metrics.get("standalone.Used/ToString").chars());
+		assertEquals(1, metrics.get("standalone.Used/MakeComparable").invocations());
+	}
+
+	@Test void aggregatedHelpersRegisterOnlyTheTypesUsed() throws Exception {
+		final TestCompiler.Result result = compile("aggregated", true);
+		assertEquals("Used(x=1)", result.call("aggregated._PackageHelper", "toString", result.newInstance("aggregated.Used")));
+
+		final Map<String, HelperMetrics> metrics = metrics("aggregated.");
+		assertEquals(Collections.singleton("aggregated.Used/ToString"), metrics.keySet());
+		assertEquals(1, metrics.get("aggregated.Used/ToString").invocations());
+		assertFalse(metrics.containsKey("aggregated.Unused/ToString"));
+	}
+
+	private static TestCompiler.Result compile(String packageName, boolean aggregate) throws Exception {
+		final Map<String, String> options = new HashMap<>();
+		options.put(DemoProcessor.METRICS_OPTION, "true");
+		options.put(DemoProcessor.AGGREGATE_OPTION, Boolean.toString(aggregate));
+		final String annotations = "@de.grajcar.aptlombokdemo.ToString @de.grajcar.aptlombokdemo.MakeComparable";
+		return TestCompiler.compile(options, Arrays.asList(
+				TestCompiler.source(packageName + ".Used", "package " + packageName + ";\n" + annotations + " public class Used { int x = 1; }\n"),
+				TestCompiler.source(packageName + ".Unused", "package " + packageName + ";\n" + annotations + " public class Unused { int y = 2; }\n")));
+	}
+
+	private static Map<String, HelperMetrics> metrics(String packagePrefix) {
+		return HelperMetrics.all().stream()
+				.filter(m -> m.typeName().startsWith(packagePrefix))
+				.collect(Collectors.toMap(m -> m.typeName() + "/" + m.feature(), m -> m));
+	}
+}
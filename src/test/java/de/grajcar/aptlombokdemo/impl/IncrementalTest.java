@@ -0,0 +1,131 @@
+package de.grajcar.aptlombokdemo.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gradle.testkit.runner.GradleRunner;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks what Gradle needs for compiling incrementally, i.e., the kind of processor declared per mode and the originating elements,
+ * and that Gradle actually regenerates only the helpers of the types touched.
+ */
+class IncrementalTest {
+	private static final String A = "package p;\n@de.grajcar.aptlombokdemo.ToString @de.grajcar.aptlombokdemo.MakeComparable public class A { int a; }\n";
+	private static final String B = "package p;\n@de.grajcar.aptlombokdemo.ToString public class B { int b; public static class C { int c; } }\n";
+	private static final String B_WITH_NESTED = "package p;\n@de.grajcar.aptlombokdemo.ToString public class B { int b; @de.grajcar.aptlombokdemo.ToString public static class C { int c; } }\n";
+	private static final String TOUCHED_A = A.replace("int a;", "int a; int touched;");
+	private static final String NESTING_A = A.replace("int a;", "int a; @de.grajcar.aptlombokdemo.MakeComparable.Exclude B b = new B();");
+	private static final FileTime LONG_AGO = FileTime.fromMillis(1_000_000_000_000L);
+
+	@Test void isolatingWithEachHelperOriginatingFromItsType() throws IOException {
+		final TestCompiler.Result result = TestCompiler.compile(Collections.emptyMap(),
+				Arrays.asList(TestCompiler.source("p.A", A), TestCompiler.source("p.B", B_WITH_NESTED)));
+		assertTrue(result.supportedOptions.contains("org.gradle.annotation.processing.isolating"));
+		assertFalse(result.supportedOptions.contains("org.gradle.annotation.processing.aggregating"));
+
+		final Map<String, List<String>> expected = new LinkedHashMap<>();
+		expected.put("p._A_MakeComparableHelper", Collections.singletonList("p.A"));
+		expected.put("p._A_ToStringHelper", Collections.singletonList("p.A"));
+		expected.put("p._B_C_ToStringHelper", Collections.singletonList("p.B.C"));
+		expected.put("p._B_ToStringHelper", Collections.singletonList("p.B"));
+		assertEquals(expected, result.originatingTypes);
+	}
+
+	@Test void aggregatingWithPackageHelperOriginatingFromAllTypes() throws IOException {
+		final TestCompiler.Result result = TestCompiler.compile(Collections.singletonMap(DemoProcessor.AGGREGATE_OPTION, "true"),
+				Arrays.asList(TestCompiler.source("p.A", A), TestCompiler.source("p.B", B_WITH_NESTED)));
+		assertTrue(result.supportedOptions.contains("org.gradle.annotation.processing.aggregating"));
+		assertFalse(result.supportedOptions.contains("org.gradle.annotation.processing.isolating"));
+
+		final Map<String, List<String>> expected = new LinkedHashMap<>();
+		expected.put("p._PackageHelper", Arrays.asList("p.A", "p.B", "p.B.C"));
+		assertEquals(expected, result.originatingTypes);
+	}
+
+	@Test void gradleRegeneratesOnlyTheTouchedType(@TempDir Path projectDir) throws IOException {
+		final Path generated = setUpProject(projectDir, false);
+		final Path touchedHelper = generated.resolve("p/_A_ToStringHelper.java");
+		final Path untouchedHelper = generated.resolve("p/_B_ToStringHelper.java");
+		for (final Path p : Arrays.asList(touchedHelper, untouchedHelper)) Files.setLastModifiedTime(p, LONG_AGO);
+
+		write(projectDir.resolve("src/main/java/p/A.java"), TOUCHED_A);
+		build(projectDir);
+		assertTrue(read(touchedHelper).contains("touched"));
+		assertNotEquals(LONG_AGO, Files.getLastModifiedTime(touchedHelper));
+		assertEquals(LONG_AGO, Files.getLastModifiedTime(untouchedHelper));
+	}
+
+	@Test void gradleRegeneratesThePackageHelperWithAllTypes(@TempDir Path projectDir) throws IOException {
+		final Path generated = setUpProject(projectDir, true);
+
+		write(projectDir.resolve("src/main/java/p/A.java"), TOUCHED_A);
+		build(projectDir);
+		final String packageHelper = read(generated.resolve("p/_PackageHelper.java"));
+		assertTrue(packageHelper.contains("touched"));
+		assertTrue(packageHelper.contains("p.B object"));
+	}
+
+	@Test void incrementalBuildCallsTheSameNestedHelperAsCleanBuild(@TempDir Path projectDir) throws IOException {
+		final Path helper = setUpProject(projectDir, false).resolve("p/_A_ToStringHelper.java");
+		Files.setLastModifiedTime(helper, LONG_AGO);
+
+		write(projectDir.resolve("src/main/java/p/A.java"), NESTING_A);
+		build(projectDir);
+		assertNotEquals(LONG_AGO, Files.getLastModifiedTime(helper));
+		final String incremental = read(helper);
+		assertTrue(incremental.contains("p._B_ToStringHelper.toString(value, result);"));
+
+		build(projectDir, "clean");
+		assertEquals(read(helper), incremental);
+	}
+
+	/** Create a project with two annotated types using the processor built, build it and return the directory of the generated sources. */
+	private static Path setUpProject(Path projectDir, boolean aggregate) throws IOException {
+		final String processorJar = System.getProperty("aptlombokdemo.processorJar").replace("\\", "/");
+		write(projectDir.resolve("settings.gradle"), "rootProject.name = \"incremental\"\n");
+		write(projectDir.resolve("build.gradle"), "apply plugin: \"java\"\n"
+				+ "dependencies {\n"
+				+ "\tcompileOnly files(\"" + processorJar + "\")\n"
+				+ "\tannotationProcessor files(\"" + processorJar + "\")\n"
+				+ "}\n"
+				+ "tasks.withType(JavaCompile) {\n"
+				+ "\toptions.compilerArgs << \"-A" + DemoProcessor.AGGREGATE_OPTION + "=" + aggregate + "\"\n"
+				+ "}\n");
+		write(projectDir.resolve("src/main/java/p/A.java"), A);
+		write(projectDir.resolve("src/main/java/p/B.java"), B);
+		build(projectDir);
+		return projectDir.resolve("build/generated/sources/annotationProcessor/java/main");
+	}
+
+	/** Build the project running the given tasks first. */
+	private static void build(Path projectDir, String... tasks) {
+		final List<String> arguments = new ArrayList<>(Arrays.asList(tasks));
+		arguments.addAll(Arrays.asList("compileJava", "--offline"));
+		GradleRunner.create().withProjectDir(projectDir.toFile()).withArguments(arguments).build();
+	}
+
+	private static void write(Path path, String content) throws IOException {
+		Files.createDirectories(path.getParent());
+		Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String read(Path path) throws IOException {
+		return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+	}
+}
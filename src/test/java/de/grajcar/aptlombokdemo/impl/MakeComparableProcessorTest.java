@@ -0,0 +1,157 @@
+package de.grajcar.aptlombokdemo.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class MakeComparableProcessorTest {
+	@Test void primitivesGetComparedLikeByTheirWrappers() throws Exception {
+		final TestCompiler.Result result = compile("package p;\n"
+				+ "@de.grajcar.aptlombokdemo.MakeComparable public class Primitives {\n"
+				+ "\tpublic Primitives(double d, float f, long l, boolean b, char c) { this.d = d; this.f = f; this.l = l; this.b = b; this.c = c; }\n"
+				+ "\tdouble d; float f; long l; boolean b; char c;\n"
+				+ "}\n");
+		assertFalse(result.generatedSources.get("p._Primitives_MakeComparableHelper").contains("valueOf"));
+		final double[] doubles = {Double.NEGATIVE_INFINITY, -1, -0.0, 0.0, 1, Double.NaN};
+		for (final double x : doubles) {
+			for (final double y : doubles) {
+				assertEquals(Integer.signum(Double.compare(x, y)), compare(result, "p.Primitives", primitives(result, x, 0, 0, false, 'a'), primitives(result, y, 0, 0, false, 'a')));
+				assertEquals(Integer.signum(Float.compare((float) x, (float) y)), compare(result, "p.Primitives", primitives(result, 0, x, 0, false, 'a'), primitives(result, 0, y, 0, false, 'a')));
+			}
+		}
+		assertEquals(-1, compare(result, "p.Primitives", primitives(result, 0, 0, Long.MIN_VALUE, true, 'a'), primitives(result, 0, 0, Long.MAX_VALUE, false, 'a')));
+		assertEquals(-1, compare(result, "p.Primitives", primitives(result, 0, 0, 0, false, '\uffff'), primitives(result, 0, 0, 0, true, 'a')));
+		assertEquals(-1, compare(result, "p.Primitives", primitives(result, 0, 0, 0, true, 'a'), primitives(result, 0, 0, 0, true, '\uffff')));
+	}
+
+	@Test void reverseSwapsTheOperandsAndNonComparablesAreAnError() throws Exception {
+		final TestCompiler.Result result = compile("package p;\n"
+				+ "@de.grajcar.aptlombokdemo.MakeComparable public class Reversed {\n"
+				+ "\tpublic Reversed(Thread.State state, String name) { this.state = state; this.name = name; }\n"
+				+ "\tThread.State state; @de.grajcar.aptlombokdemo.MakeComparable.Include(reverse = true) String name;\n"
+				+ "}\n");
+		assertEquals(-1, compare(result, "p.Reversed", result.newInstance("p.Reversed", Thread.State.NEW, "a"), result.newInstance("p.Reversed", Thread.State.RUNNABLE, "a")));
+		assertEquals(1, compare(result, "p.Reversed", result.newInstance("p.Reversed", Thread.State.NEW, "a"), result.newInstance("p.Reversed", Thread.State.NEW, "b")));
+
+		final TestCompiler.Result errors = TestCompiler.compileWithErrors(Collections.emptyMap(), Collections.singletonList(TestCompiler.source("p.Opaque",
+				"package p;\n@de.grajcar.aptlombokdemo.MakeComparable public class Opaque { Object o; }\n")));
+		assertEquals(Collections.singletonList("MakeComparable doesn't work with a member of type java.lang.Object as it's neither primitive nor Comparable."), errors.errors);
+	}
+
+	@Test void nullsGetPlacedIndependentlyOfReverse() throws Exception {
+		final TestCompiler.Result result = compile("package p;\n"
+				+ "@de.grajcar.aptlombokdemo.MakeComparable(nullsFirst = true) public class Nulls {\n"
+				+ "\tpublic Nulls(String a, Integer b) { this.a = a; this.b = b; }\n"
+				+ "\tString a; @de.grajcar.aptlombokdemo.MakeComparable.Include(reverse = true, nullsLast = true) Integer b;\n"
+				+ "}\n");
+		assertEquals(-1, compare(result, "p.Nulls", result.newInstance("p.Nulls", null, 1), result.newInstance("p.Nulls", "a", 1)));
+		assertEquals(0, compare(result, "p.Nulls", result.newInstance("p.Nulls", null, null), result.newInstance("p.Nulls", null, null)));
+		assertEquals(1, compare(result, "p.Nulls", result.newInstance("p.Nulls", "a", null), result.newInstance("p.Nulls", "a", 1)));
+		assertEquals(1, compare(result, "p.Nulls", result.newInstance("p.Nulls", "a", 1), result.newInstance("p.Nulls", "a", 2)));
+
+		final TestCompiler.Result unhandled = compile("package p;\n"
+				+ "@de.grajcar.aptlombokdemo.MakeComparable public class Unhandled {\n"
+				+ "\tpublic Unhandled(String a) { this.a = a; }\n"
+				+ "\tString a; @de.grajcar.aptlombokdemo.MakeComparable.Include(nullsFirst = true) int i;\n"
+				+ "}\n");
+		assertEquals(Collections.singletonList("Needless nullsFirst or nullsLast on a primitive member"), unhandled.warnings);
+		assertThrows(NullPointerException.class, () -> compare(unhandled, "p.Unhandled", unhandled.newInstance("p.Unhandled", (Object) null), unhandled.newInstance("p.Unhandled", "a")));
+	}
+
+	@Test void nullsFirstAndNullsLastTogetherAreAnError() throws Exception {
+		final TestCompiler.Result result = TestCompiler.compileWithErrors(Collections.emptyMap(), Collections.singletonList(TestCompiler.source("p.Both",
+				"package p;\n@de.grajcar.aptlombokdemo.MakeComparable(nullsFirst = true, nullsLast = true) public class Both { String a; }\n")));
+		assertEquals(Collections.singletonList("Combining nullsFirst and nullsLast is contradictory."), result.errors);
+	}
+
+	@Test void sortKeysAndSortAgreeWithCompare() throws Exception {
+		final TestCompiler.Result result = compile("package p;\n"
+				+ "@de.grajcar.aptlombokdemo.MakeComparable(sortKey = true, nullsFirst = true) public class Keyed {\n"
+				+ "\tpublic Keyed(int a, boolean b, Thread.State state, double d, String name) { this.a = a; this.b = b; this.state = state; this.d = d; this.name = name; }\n"
+				+ "\tint a; @de.grajcar.aptlombokdemo.MakeComparable.Include(reverse = true) boolean b; Thread.State state; double d; String name;\n"
+				+ "}\n");
+		final Random random = new Random(1);
+		final Object[] states = {null, Thread.State.NEW, Thread.State.BLOCKED, Thread.State.TERMINATED};
+		final double[] doubles = {Double.NaN, -0.0, 0.0, -1};
+		final String[] names = {null, "a", "b"};
+		final Class<?> type = result.classLoader().loadClass("p.Keyed");
+		final Object[] array = (Object[]) Array.newInstance(type, 500);
+		for (int i=0; i<array.length; ++i) {
+			final int a = random.nextBoolean() ? random.nextInt(5) - 2 : random.nextInt();
+			array[i] = result.newInstance("p.Keyed", a, random.nextBoolean(), states[random.nextInt(states.length)], doubles[random.nextInt(doubles.length)], names[random.nextInt(names.length)]);
+		}
+
+		for (int i=0; i<100; ++i) {
+			for (int j=0; j<100; ++j) {
+				final int keyOrder = Long.compare((long) result.call("p._Keyed_MakeComparableHelper", "sortKey", array[i]), (long) result.call("p._Keyed_MakeComparableHelper", "sortKey", array[j]));
+				if (keyOrder != 0) assertEquals(Integer.signum(keyOrder), compare(result, "p.Keyed", array[i], array[j]));
+			}
+		}
+
+		final Object[] sorted = array.clone();
+		result.call("p._Keyed_MakeComparableHelper", "sort", (Object) sorted);
+		for (int i=1; i<sorted.length; ++i) assertTrue(compare(result, "p.Keyed", sorted[i-1], sorted[i]) <= 0);
+		final Set<Object> elements = Collections.newSetFromMap(new IdentityHashMap<>());
+		elements.addAll(Arrays.asList(sorted));
+		assertEquals(array.length, elements.size());
+	}
+
+	@Test void sortKeyNeedsALeadingPrimitiveOrEnum() throws Exception {
+		final TestCompiler.Result result = compile("package p;\n@de.grajcar.aptlombokdemo.MakeComparable(sortKey = true) public class Unkeyed { String name; int a; }\n");
+		assertEquals(Collections.singletonList("No sortKey gets generated as the first member is neither primitive nor an enum."), result.warnings);
+		assertFalse(result.generatedSources.get("p._Unkeyed_MakeComparableHelper").contains("sortKey"));
+	}
+
+	@Test void comparisonStepsGetCalledInRankOrder() throws Exception {
+		final TestCompiler.Result result = compile("package p;\n"
+				+ "@de.grajcar.aptlombokdemo.MakeComparable @de.grajcar.aptlombokdemo.MakeComparable.Exclude public class Steps {\n"
+				+ "\tpublic Steps(String name, int size) { this.name = name; this.size = size; }\n"
+				+ "\t@de.grajcar.aptlombokdemo.MakeComparable.Include(rank = 1)\n"
+				+ "\tstatic final java.util.Comparator<Steps> BY_LENGTH = java.util.Comparator.comparingInt(s -> s.name.length());\n"
+				+ "\t@de.grajcar.aptlombokdemo.MakeComparable.Include(rank = 2, reverse = true) int bySize(Steps other) { return Integer.compare(size, other.size); }\n"
+				+ "\t@de.grajcar.aptlombokdemo.MakeComparable.Include(rank = 3) static int byName(Steps a, Steps b) { return a.name.compareTo(b.name); }\n"
+				+ "\tfinal String name; final int size;\n"
+				+ "}\n");
+		assertEquals(-1, compare(result, "p.Steps", steps(result, "b", 1), steps(result, "aa", 1)));
+		assertEquals(-1, compare(result, "p.Steps", steps(result, "b", 2), steps(result, "a", 1)));
+		assertEquals(-1, compare(result, "p.Steps", steps(result, "a", 1), steps(result, "b", 1)));
+		assertEquals(0, compare(result, "p.Steps", steps(result, "a", 1), steps(result, "a", 1)));
+	}
+
+	@Test void nullsFirstOnComparisonStepIsAnError() throws Exception {
+		final TestCompiler.Result result = TestCompiler.compileWithErrors(Collections.emptyMap(), Collections.singletonList(TestCompiler.source("p.Nulls", "package p;\n"
+				+ "@de.grajcar.aptlombokdemo.MakeComparable public class Nulls {\n"
+				+ "\t@de.grajcar.aptlombokdemo.MakeComparable.Include(nullsFirst = true) int byX(Nulls other) { return Integer.compare(x, other.x); }\n"
+				+ "\tint x;\n"
+				+ "}\n")));
+		assertEquals(Collections.singletonList("nullsFirst and nullsLast don't apply to a comparison method or comparator."), result.errors);
+	}
+
+	private static TestCompiler.Result compile(String source) throws Exception {
+		final String className = source.replaceAll("(?s).*public class (\\w+).*", "p.$1");
+		return TestCompiler.compile(Collections.emptyMap(), Collections.singletonList(TestCompiler.source(className, source)));
+	}
+
+	private static Object primitives(TestCompiler.Result result, double d, double f, long l, boolean b, char c) throws Exception {
+		return result.newInstance("p.Primitives", d, (float) f, l, b, c);
+	}
+
+	private static Object steps(TestCompiler.Result result, String name, int size) throws Exception {
+		return result.newInstance("p.Steps", name, size);
+	}
+
+	/** Return the signum of the result of the generated {@code compare}. */
+	private static int compare(TestCompiler.Result result, String className, Object first, Object second) throws Exception {
+		return Integer.signum((int) result.call(className.replace(".", "._") + "_MakeComparableHelper", "compare", first, second));
+	}
+}
@@ -0,0 +1,53 @@
+package de.grajcar.aptlombokdemo.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Objects;
+
+import org.junit.jupiter.api.Test;
+
+class MakeHashableProcessorTest {
+	private static final String POINT = "package p;\n"
+			+ "@de.grajcar.aptlombokdemo.MakeHashable(cacheField = \"hash\") @de.grajcar.aptlombokdemo.MakeComparable @de.grajcar.aptlombokdemo.ToString\n"
+			+ "public class Point {\n"
+			+ "\tfinal int x; final String label; @de.grajcar.aptlombokdemo.MakeComparable.Exclude final double[] weights; public transient int hash;\n"
+			+ "\tpublic Point(int x, String label, double... weights) { this.x = x; this.label = label; this.weights = weights; }\n"
+			+ "}\n";
+
+	@Test void equalsAndHashCodeUseAllFieldsButTheCache() throws Exception {
+		final TestCompiler.Result result = compile();
+		final Object point = result.newInstance("p.Point", 1, "a", new double[] {0.5});
+		final Object equal = result.newInstance("p.Point", 1, "a", new double[] {0.5});
+		assertEquals(true, result.call("p._Point_MakeHashableHelper", "equals", point, equal));
+		assertEquals(false, result.call("p._Point_MakeHashableHelper", "equals", point, result.newInstance("p.Point", 2, "a", new double[] {0.5})));
+		assertEquals(false, result.call("p._Point_MakeHashableHelper", "equals", point, result.newInstance("p.Point", 1, null, new double[] {0.5})));
+		assertEquals(false, result.call("p._Point_MakeHashableHelper", "equals", point, result.newInstance("p.Point", 1, "a", new double[] {0.25})));
+		assertEquals(false, result.call("p._Point_MakeHashableHelper", "equals", point, "a"));
+		assertEquals(false, result.call("p._Point_MakeHashableHelper", "equals", point, null));
+
+		// The cheapest members come first, which happens to be the declaration order here.
+		final int expected = Objects.hash(1, "a", Arrays.hashCode(new double[] {0.5}));
+		assertEquals(expected, result.call("p._Point_MakeHashableHelper", "hashCode", point));
+		assertEquals(expected, point.getClass().getDeclaredField("hash").getInt(point));
+		assertEquals(expected, result.call("p._Point_MakeHashableHelper", "hashCode", point));
+		assertEquals(true, result.call("p._Point_MakeHashableHelper", "equals", point, equal));
+	}
+
+	@Test void cacheFieldGetsUsedByNoOtherFeature() throws Exception {
+		final TestCompiler.Result result = compile();
+		final Object point = result.newInstance("p.Point", 1, "a", new double[] {0.5});
+		final Object equal = result.newInstance("p.Point", 1, "a", new double[] {0.5});
+		assertNotEquals(0, result.call("p._Point_MakeHashableHelper", "hashCode", point));
+
+		assertEquals(0, result.call("p._Point_MakeComparableHelper", "compare", point, equal));
+		assertEquals(0, result.call("p._Point_MakeComparableHelper", "compare", equal, point));
+		assertEquals("Point(x=1, label=a, weights=[0.5])", result.call("p._Point_ToStringHelper", "toString", point));
+	}
+
+	private static TestCompiler.Result compile() throws Exception {
+		return TestCompiler.compile(Collections.emptyMap(), Collections.singletonList(TestCompiler.source("p.Point", POINT)));
+	}
+}
@@ -0,0 +1,290 @@
+package de.grajcar.aptlombokdemo.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles sources in memory with the {@link DemoProcessor}, keeping the generated sources and classes for inspection.
+ * The classpath is the one of the tests, so that the annotations and the runtime classes are available.
+ */
+final class TestCompiler {
+	static final class Result {
+		/** Return the class loader for the compiled classes, delegating to the one of the tests for everything else. */
+		synchronized ClassLoader classLoader() {
+			if (classLoader == null) {
+				classLoader = new ClassLoader(TestCompiler.class.getClassLoader()) {
+					@Override protected Class<?> findClass(String name) throws ClassNotFoundException {
+						final byte[] bytes = classes.get(name);
+						if (bytes == null) throw new ClassNotFoundException(name);
+						return defineClass(name, bytes, 0, bytes.length);
+					}
+				};
+			}
+			return classLoader;
+		}
+
+		/** Return a new instance of the compiled class, created by the most specific public constructor applicable to the arguments. */
+		Object newInstance(String className, Object... args) throws Exception {
+			final Constructor<?> constructor = mostSpecific(classLoader().loadClass(className).getConstructors(), args);
+			try {
+				return constructor.newInstance(args);
+			} catch (final InvocationTargetException e) {
+				throw rethrown(e);
+			}
+		}
+
+		/** Return the result of the most specific public static method of the given name of the compiled class applicable to the arguments. */
+		Object call(String className, String methodName, Object... args) throws Exception {
+			final Executable[] methods = Arrays.stream(classLoader().loadClass(className).getMethods())
+					.filter(m -> m.getName().equals(methodName) && Modifier.isStatic(m.getModifiers()))
+					.toArray(Executable[]::new);
+			try {
+				return ((Method) mostSpecific(methods, args)).invoke(null, args);
+			} catch (final InvocationTargetException e) {
+				throw rethrown(e);
+			}
+		}
+
+		private static <E extends Executable> E mostSpecific(E[] executables, Object[] args) {
+			E result = null;
+			for (final E e : executables) {
+				if (isApplicable(e.getParameterTypes(), args) && (result == null || isAssignable(e.getParameterTypes(), result.getParameterTypes()))) result = e;
+			}
+			if (result == null) throw new AssertionError("Nothing applicable to " + Arrays.toString(args) + " in " + Arrays.toString(executables));
+			return result;
+		}
+
+		private static boolean isApplicable(Class<?>[] parameterTypes, Object[] args) {
+			if (parameterTypes.length != args.length) return false;
+			for (int i=0; i<args.length; ++i) {
+				if (args[i] == null ? parameterTypes[i].isPrimitive() : !wrap(parameterTypes[i]).isInstance(args[i])) return false;
+			}
+			return true;
+		}
+
+		private static boolean isAssignable(Class<?>[] types, Class<?>[] targetTypes) {
+			for (int i=0; i<types.length; ++i) {
+				if (!wrap(targetTypes[i]).isAssignableFrom(wrap(types[i]))) return false;
+			}
+			return true;
+		}
+
+		private static Class<?> wrap(Class<?> type) {
+			return MethodType.methodType(type).wrap().returnType();
+		}
+
+		private static Exception rethrown(InvocationTargetException e) {
+			if (e.getCause() instanceof Error) throw (Error) e.getCause();
+			return e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		}
+
+		/** The generated sources by their qualified class names. */
+		final Map<String, String> generatedSources = new TreeMap<>();
+		/** The qualified names of the types each generated source originates from, as passed to the {@link Filer}. */
+		final Map<String, List<String>> originatingTypes = new TreeMap<>();
+		/** The supported options reported by the processor after its initialization, as seen by Gradle. */
+		Set<String> supportedOptions;
+		/** The messages of all warnings, compiling with {@code -Xlint:processing}. */
+		final List<String> warnings = new ArrayList<>();
+		/** The messages of all errors, which can be non-empty only for {@link TestCompiler#compileWithErrors}. */
+		final List<String> errors = new ArrayList<>();
+
+		private final Map<String, byte[]> classes = new ConcurrentHashMap<>();
+		private ClassLoader classLoader;
+	}
+
+	private static final class InMemorySource extends SimpleJavaFileObject {
+		InMemorySource(String className, String content) {
+			super(URI.create("mem:///src/" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+			this.content = content;
+		}
+
+		@Override public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return content;
+		}
+
+		private final String content;
+	}
+
+	private static final class InMemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+		InMemoryFileManager(StandardJavaFileManager fileManager, Result result) {
+			super(fileManager);
+			this.result = result;
+		}
+
+		@Override public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+			return new SimpleJavaFileObject(URI.create("mem:///" + location.getName() + "/" + className.replace('.', '/') + kind.extension), kind) {
+				@Override public OutputStream openOutputStream() {
+					return new ByteArrayOutputStream() {
+						@Override public void close() {
+							content = toByteArray();
+							if (getKind() == Kind.SOURCE) {
+								result.generatedSources.put(className, new String(content, StandardCharsets.UTF_8));
+							} else if (getKind() == Kind.CLASS) {
+								result.classes.put(className, content);
+							}
+						}
+					};
+				}
+
+				@Override public Writer openWriter() {
+					return new OutputStreamWriter(openOutputStream(), StandardCharsets.UTF_8);
+				}
+
+				@Override public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+					return new String(content, StandardCharsets.UTF_8);
+				}
+
+				private byte[] content = new byte[0];
+			};
+		}
+
+		private final Result result;
+	}
+
+	/** Records the originating elements of the generated sources by handing the processor a {@link Filer} passing them on. */
+	private static final class RecordingProcessor implements Processor {
+		RecordingProcessor(DemoProcessor delegate, Result result) {
+			this.delegate = delegate;
+			this.result = result;
+		}
+
+		@Override public void init(ProcessingEnvironment processingEnv) {
+			delegate.init(withFiler(processingEnv, recordingFiler(processingEnv.getFiler(), result)));
+			result.supportedOptions = delegate.getSupportedOptions();
+		}
+
+		@Override public Set<String> getSupportedOptions() {
+			return delegate.getSupportedOptions();
+		}
+
+		@Override public Set<String> getSupportedAnnotationTypes() {
+			return delegate.getSupportedAnnotationTypes();
+		}
+
+		@Override public SourceVersion getSupportedSourceVersion() {
+			return delegate.getSupportedSourceVersion();
+		}
+
+		@Override public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+			return delegate.process(annotations, roundEnv);
+		}
+
+		@Override public Iterable<? extends Completion> getCompletions(Element element, AnnotationMirror annotation, ExecutableElement member, String userText) {
+			return delegate.getCompletions(element, annotation, member, userText);
+		}
+
+		private final DemoProcessor delegate;
+		private final Result result;
+	}
+
+	private TestCompiler() {
+	}
+
+	/** Return the source of the given class read from the given source root. */
+	static JavaFileObject source(Path sourceRoot, String className) throws IOException {
+		final Path path = sourceRoot.resolve(className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension);
+		return source(className, new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+	}
+
+	static JavaFileObject source(String className, String content) {
+		return new InMemorySource(className, content);
+	}
+
+	/** Compile the sources with the processor given the options and any other processors, failing when there are any errors. */
+	static Result compile(Map<String, String> processorOptions, List<JavaFileObject> sources, Processor... otherProcessors) throws IOException {
+		final Result result = compileWithErrors(processorOptions, sources, otherProcessors);
+		if (!result.errors.isEmpty()) throw new AssertionError("Compilation failed: " + result.errors);
+		return result;
+	}
+
+	/** Compile the sources like {@link #compile}, but let the caller check the errors. */
+	static Result compileWithErrors(Map<String, String> processorOptions, List<JavaFileObject> sources, Processor... otherProcessors) throws IOException {
+		final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		final Result result = new Result();
+		try (InMemoryFileManager fileManager = new InMemoryFileManager(compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8), result)) {
+			final List<String> options = new ArrayList<>(Arrays.asList("-classpath", System.getProperty("java.class.path"), "-Xlint:processing"));
+			processorOptions.forEach((k, v) -> options.add("-A" + k + "=" + v));
+			final JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null, sources);
+			final List<Processor> processors = new ArrayList<>(Arrays.asList(otherProcessors));
+			processors.add(new RecordingProcessor(new DemoProcessor(), result));
+			task.setProcessors(processors);
+			task.call();
+			for (final Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+				if (d.getKind() == Diagnostic.Kind.ERROR) result.errors.add(d.getMessage(Locale.ROOT));
+				if (d.getKind() == Diagnostic.Kind.WARNING || d.getKind() == Diagnostic.Kind.MANDATORY_WARNING) result.warnings.add(d.getMessage(Locale.ROOT));
+			}
+		}
+		return result;
+	}
+
+	/** Return the environment with the filer replaced. */
+	private static ProcessingEnvironment withFiler(ProcessingEnvironment processingEnv, Filer filer) {
+		return (ProcessingEnvironment) Proxy.newProxyInstance(TestCompiler.class.getClassLoader(), new Class<?>[] {ProcessingEnvironment.class},
+				(proxy, method, args) -> method.getName().equals("getFiler") ? filer : invoke(method, processingEnv, args));
+	}
+
+	/** Return the filer recording the originating elements of the generated sources into the result. */
+	private static Filer recordingFiler(Filer filer, Result result) {
+		return (Filer) Proxy.newProxyInstance(TestCompiler.class.getClassLoader(), new Class<?>[] {Filer.class}, (proxy, method, args) -> {
+			if (method.getName().equals("createSourceFile")) {
+				result.originatingTypes.put(args[0].toString(), Arrays.stream((Element[]) args[1])
+						.map(e -> ((TypeElement) e).getQualifiedName().toString())
+						.collect(Collectors.toList()));
+			}
+			return invoke(method, filer, args);
+		});
+	}
+
+	private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (final InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package de.grajcar.aptlombokdemo.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+
+import org.junit.jupiter.api.Test;
+
+import de.grajcar.aptlombokdemo.ToStringCache;
+
+class ToStringProcessorTest {
+	/** Generates annotated types in the first round, so that they get processed in the second one. */
+	@SupportedAnnotationTypes("*")
+	private static final class LaterRoundProcessor extends AbstractProcessor {
+		@Override public SourceVersion getSupportedSourceVersion() {
+			return SourceVersion.latestSupported();
+		}
+
+		@Override public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+			if (isDone) return false;
+			isDone = true;
+			write("p.Inner", "package p;\n@de.grajcar.aptlombokdemo.ToString public class Inner { int x = 1; }\n");
+			write("p.Outer", "package p;\n@de.grajcar.aptlombokdemo.ToString public class Outer { Inner inner = new Inner(); }\n");
+			return false;
+		}
+
+		private void write(String className, String content) {
+			try (Writer writer = processingEnv.getFiler().createSourceFile(className).openWriter()) {
+				writer.write(content);
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private boolean isDone;
+	}
+
+	@Test void sinksGetAppendedToAndNestedHelpersShareTheBuilder() throws Exception {
+		final TestCompiler.Result result = TestCompiler.compile(Collections.emptyMap(), Arrays.asList(
+				TestCompiler.source("p.Inner", "package p;\n@de.grajcar.aptlombokdemo.ToString public class Inner { int x = 1; }\n"),
+				TestCompiler.source("p.Sub", "package p;\npublic class Sub extends Inner { @Override public String toString() { return \"sub\"; } }\n"),
+				TestCompiler.source("p.Outer", "package p;\n@de.grajcar.aptlombokdemo.ToString public class Outer {\n"
+						+ "\tpublic Outer(Inner inner) { this.inner = inner; }\n"
+						+ "\tInner inner;\n"
+						+ "}\n")));
+		assertTrue(result.generatedSources.get("p._Outer_ToStringHelper").contains("p._Inner_ToStringHelper.toString(value, result);"));
+		final Object outer = result.newInstance("p.Outer", result.newInstance("p.Inner"));
+
+		final StringBuilder builder = new StringBuilder("[");
+		assertSame(builder, result.call("p._Outer_ToStringHelper", "toString", outer, builder));
+		assertEquals("[Outer(inner=Inner(x=1))", builder.toString());
+		final StringWriter writer = new StringWriter();
+		assertSame(writer, result.call("p._Outer_ToStringHelper", "toString", outer, (Appendable) writer));
+		assertEquals("Outer(inner=Inner(x=1))", writer.toString());
+
+		// A subclass may override toString, so it doesn't get the helper of the annotated class.
+		assertEquals("Outer(inner=sub)", result.call("p._Outer_ToStringHelper", "toString", result.newInstance("p.Outer", result.newInstance("p.Sub"))));
+		assertEquals("Outer(inner=null)", result.call("p._Outer_ToStringHelper", "toString", result.newInstance("p.Outer", (Object) null)));
+	}
+
+	@Test void fewSimpleMembersGetConcatenated() throws Exception {
+		final TestCompiler.Result result = TestCompiler.compile(Collections.emptyMap(), Arrays.asList(
+				TestCompiler.source("p.Few", "package p;\n@de.grajcar.aptlombokdemo.ToString public class Few {\n"
+						+ IntStream.range(0, 16).mapToObj(i -> "\tprivate " + (i % 2 == 0 ? "double" : "String") + " f" + i + ";\n").collect(Collectors.joining())
+						+ "}\n"),
+				TestCompiler.source("p.Many", "package p;\n@de.grajcar.aptlombokdemo.ToString public class Many {\n"
+						+ IntStream.range(0, 17).mapToObj(i -> "\tint f" + i + " = " + i + ";\n").collect(Collectors.joining())
+						+ "}\n"),
+				TestCompiler.source("p.WithArray", "package p;\n@de.grajcar.aptlombokdemo.ToString public class WithArray { int[] a = {1}; }\n")));
+		assertEquals(SourceVersion.latestSupported(), new DemoProcessor().getSupportedSourceVersion());
+		assertTrue(result.generatedSources.get("p._Few_ToStringHelper").contains("return \"Few(f0=\" + "));
+		assertTrue(result.generatedSources.get("p._Many_ToStringHelper").contains("return toString(object, new java.lang.StringBuilder()).toString();"));
+		assertTrue(result.generatedSources.get("p._WithArray_ToStringHelper").contains("return toString(object, new java.lang.StringBuilder()).toString();"));
+		for (final String className : Arrays.asList("p.Few", "p.Many", "p.WithArray")) {
+			final Object object = result.newInstance(className);
+			final String helper = className.replace(".", "._") + "_ToStringHelper";
+			assertEquals(result.call(helper, "toString", object, new StringBuilder()).toString(), result.call(helper, "toString", object));
+		}
+		assertEquals("WithArray(a=[1])", toString(result, "p.WithArray"));
+	}
+
+	@Test void writeToPutsTheUtf8OfToString() throws Exception {
+		final TestCompiler.Result result = TestCompiler.compile(Collections.emptyMap(), Arrays.asList(
+				TestCompiler.source("p.Simple", "package p;\n@de.grajcar.aptlombokdemo.ToString(writeTo = true) public class Simple {\n"
+						+ "\tString text = \"a\u00e4\u20ac\\uD83D\\uDE00\\uD800x\"; String none;\n"
+						+ "\tchar c = '\u20ac'; int i = Integer.MIN_VALUE; long l = Long.MIN_VALUE; long small = -123; short s = -5; byte b = 7;\n"
+						+ "\tdouble d = -0.0; float f = 1e10f; boolean z = true; int gr\u00f6\u00dfe = 1;\n"
+						+ "}\n"),
+				// Like arrays, members which may lead back to the type need the depth limit, so writeTo encodes toString instead.
+				TestCompiler.source("p.Indirect", "package p;\n@de.grajcar.aptlombokdemo.ToString(writeTo = true) public class Indirect {\n"
+						+ "\tString[] a = {\"\u00e4\"}; CharSequence builder = new StringBuilder(\"b\u00df\"); Object o = 42;\n"
+						+ "}\n")));
+		for (final String className : Arrays.asList("p.Simple", "p.Indirect")) {
+			final Object object = result.newInstance(className);
+			final String helper = className.replace(".", "._") + "_ToStringHelper";
+			final byte[] expected = ((String) result.call(helper, "toString", object)).getBytes(StandardCharsets.UTF_8);
+
+			final ByteBuffer buffer = ByteBuffer.allocate(expected.length + 3);
+			buffer.put(new byte[] {1, 2, 3});
+			assertEquals(true, result.call(helper, "writeTo", object, buffer));
+			assertEquals(buffer.capacity(), buffer.position());
+			assertArrayEquals(expected, Arrays.copyOfRange(buffer.array(), 3, buffer.position()));
+
+			final ByteBuffer small = ByteBuffer.allocate(expected.length + 2);
+			small.put(new byte[] {1, 2, 3});
+			assertEquals(false, result.call(helper, "writeTo", object, small));
+			assertEquals(3, small.position());
+		}
+		assertTrue(result.generatedSources.get("p._Simple_ToStringHelper").contains("ToStringUtf8.put(buffer, object.i);"));
+		assertTrue(result.generatedSources.get("p._Indirect_ToStringHelper").contains("ToStringUtf8.put(buffer, toString(object));"));
+	}
+
+	@Test void nestedHelperOfLaterRoundGetsCalledWhenAggregating() throws Exception {
+		final TestCompiler.Result result = TestCompiler.compile(Collections.singletonMap(DemoProcessor.AGGREGATE_OPTION, "true"),
+				Arrays.asList(TestCompiler.source("p.First", "package p;\n@de.grajcar.aptlombokdemo.ToString public class First { }\n")),
+				new LaterRoundProcessor());
+		assertTrue(result.generatedSources.get("p._PackageHelper_2").contains("p._PackageHelper_2.toString(value, result);"));
+
+		final ClassLoader classLoader = result.classLoader();
+		final Class<?> outer = classLoader.loadClass("p.Outer");
+		final Object string = classLoader.loadClass("p._PackageHelper_2").getMethod("toString", outer).invoke(null, outer.getDeclaredConstructor().newInstance());
+		assertEquals("Outer(inner=Inner(x=1))", string);
+	}
+
+	@Test void arraysDispatchOnlyWhenTheirElementsMayBeArrays() throws Exception {
+		final TestCompiler.Result result = TestCompiler.compile(Collections.emptyMap(), Arrays.asList(
+				TestCompiler.source("p.Plain", "package p;\n@de.grajcar.aptlombokdemo.ToString public class Plain { String[] s = {\"a\"}; Integer[] i = {1}; }\n"),
+				TestCompiler.source("p.Mixed", "package p;\n@de.grajcar.aptlombokdemo.ToString public class Mixed { Object[] o = {new int[] {1}, \"b\"}; String[][] s = {{\"c\"}}; }\n")));
+		final String plain = result.generatedSources.get("p._Plain_ToStringHelper");
+		assertTrue(plain.contains("appendElements(result, object.s"));
+		assertFalse(plain.contains("appendArray"));
+		assertTrue(result.generatedSources.get("p._Mixed_ToStringHelper").contains("appendArray(result, object.s"));
+
+		assertEquals("Plain(s=[a], i=[1])", toString(result, "p.Plain"));
+		assertEquals("Mixed(o=[[1], b], s=[[c]])", toString(result, "p.Mixed"));
+	}
+
+	@Test void primitiveArraysGetShownLikeByArrays() throws Exception {
+		final TestCompiler.Result result = TestCompiler.compile(Collections.emptyMap(), Arrays.asList(
+				TestCompiler.source("p.Primitive", "package p;\n@de.grajcar.aptlombokdemo.ToString public class Primitive {\n"
+						+ "\tboolean[] z = {true}; char[] c = {'a', 'b'}; short[] s = {}; long[] l = {-1L}; float[] f = {0.5f}; double[] d = {Double.NaN}; byte[] b = {10, -1}; int[] none;\n"
+						+ "}\n"),
+				TestCompiler.source("p.Hex", "package p;\n@de.grajcar.aptlombokdemo.ToString(bytesAsHex = true) public class Hex { byte[] b = {10, -1, 0}; byte[] none; }\n")));
+		assertEquals("Primitive(z=[true], c=[a, b], s=[], l=[-1], f=[0.5], d=[NaN], b=[10, -1], none=null)", toString(result, "p.Primitive"));
+		assertEquals("Hex(b=0aff00, none=null)", toString(result, "p.Hex"));
+	}
+
+	@Test void cacheReturnsTheSameStringForAllOverloads() throws Exception {
+		final TestCompiler.Result result = TestCompiler.compile(Collections.emptyMap(), Arrays.asList(
+				TestCompiler.source("p.Point", "package p;\n@de.grajcar.aptlombokdemo.ToString(cache = true) public class Point {\n"
+						+ "\tpublic Point(int x) { this.x = x; }\n"
+						+ "\tfinal int x; int mutable;\n"
+						+ "}\n")));
+		assertEquals(Collections.singletonList("Caching toString of a type with a non-final field is dangerous."), result.warnings);
+		final Object point = result.newInstance("p.Point", 1);
+		final Object string = result.call("p._Point_ToStringHelper", "toString", point);
+		assertEquals("Point(x=1, mutable=0)", string);
+		assertSame(string, result.call("p._Point_ToStringHelper", "toString", point));
+		assertEquals("Point(x=1, mutable=0)", result.call("p._Point_ToStringHelper", "toString", point, new StringBuilder()).toString());
+		assertEquals("Point(x=1, mutable=0)", result.call("p._Point_ToStringHelper", "toString", point, (Appendable) new StringWriter()).toString());
+		assertEquals("Point(x=2, mutable=0)", result.call("p._Point_ToStringHelper", "toString", result.newInstance("p.Point", 2)));
+
+		final ToStringCache cache = (ToStringCache) result.classLoader().loadClass("p._Point_ToStringHelper").getField("CACHE").get(null);
+		assertEquals(3, cache.hits());
+		assertEquals(2, cache.misses());
+	}
+
+	@Test void cacheKeepsOnlyStringsNotTruncatedByMaxDepth() throws Exception {
+		final TestCompiler.Result result = TestCompiler.compile(Collections.emptyMap(), Arrays.asList(TestCompiler.source("p.Chain", "package p;\n"
+				+ "@de.grajcar.aptlombokdemo.ToString(cache = true, maxDepth = 2) public class Chain {\n"
+				+ "\tfinal int x; final Chain next;\n"
+				+ "\tpublic Chain(int x, Chain next) { this.x = x; this.next = next; }\n"
+				+ "}\n")));
+		final ClassLoader classLoader = result.classLoader();
+		final Class<?> type = classLoader.loadClass("p.Chain");
+		final Method toString = classLoader.loadClass("p._Chain_ToStringHelper").getMethod("toString", type);
+		final Object third = type.getConstructor(int.class, type).newInstance(3, null);
+		final Object second = type.getConstructor(int.class, type).newInstance(2, third);
+		final Object first = type.getConstructor(int.class, type).newInstance(1, second);
+		assertEquals("Chain(x=1, next=Chain(x=2, next=Chain(...)))", toString.invoke(null, first));
+		assertEquals("Chain(x=3, next=null)", toString.invoke(null, third));
+		assertEquals("Chain(x=2, next=Chain(x=3, next=null))", toString.invoke(null, second));
+		assertEquals("Chain(x=1, next=Chain(x=2, next=Chain(...)))", toString.invoke(null, first));
+	}
+
+	@Test void cyclesGetCutAtTheDefaultMaxDepth() throws Exception {
+		final TestCompiler.Result result = TestCompiler.compile(Collections.emptyMap(), Arrays.asList(
+				TestCompiler.source("p.Node", "package p;\n@de.grajcar.aptlombokdemo.ToString public class Node { String name = \"a\"; public Node next = this; }\n"),
+				TestCompiler.source("p.Leaf", "package p;\n@de.grajcar.aptlombokdemo.ToString public class Leaf { String name; Integer i; int[] ints; Thread.State state; }\n")));
+		final StringBuilder expected = new StringBuilder();
+		for (int i=0; i<8; ++i) expected.append("Node(name=a, next=");
+		expected.append("Node(...)");
+		for (int i=0; i<8; ++i) expected.append(")");
+		assertEquals(expected.toString(), toString(result, "p.Node"));
+		assertFalse(result.generatedSources.get("p._Leaf_ToStringHelper").contains("DEPTH"));
+	}
+
+	@Test void limitsTruncateTheOutput() throws Exception {
+		final TestCompiler.Result result = TestCompiler.compile(Collections.emptyMap(), Arrays.asList(
+				TestCompiler.source("p.Elements", "package p;\n@de.grajcar.aptlombokdemo.ToString(maxElements = 2) public class Elements {\n"
+						+ "\tint[] ints = {1, 2, 3}; String[] strings = {\"a\"}; java.util.List<String> list = java.util.Arrays.asList(\"a\", \"b\", \"c\");\n"
+						+ "\tjava.util.Map<String, Integer> map = new java.util.TreeMap<>(java.util.Collections.singletonMap(\"a\", 1));\n"
+						+ "\tpublic Elements() { map.put(\"b\", 2); map.put(\"c\", 3); }\n"
+						+ "}\n"),
+				TestCompiler.source("p.Length", "package p;\n@de.grajcar.aptlombokdemo.ToString(maxLength = 20) public class Length { String text = \"abcdefghijklmnop\"; int x = 1; }\n"),
+				TestCompiler.source("p.Short", "package p;\n@de.grajcar.aptlombokdemo.ToString(maxLength = 20) public class Short { String text = \"ab\"; }\n")));
+		assertEquals("Elements(ints=[1, 2, ...], strings=[a], list=[a, b, ...], map={a=1, b=2, ...})", toString(result, "p.Elements"));
+		assertEquals("Length(text=abcdefgh...", toString(result, "p.Length"));
+		assertEquals("Short(text=ab)", toString(result, "p.Short"));
+	}
+
+	private static Object toString(TestCompiler.Result result, String className) throws Exception {
+		final ClassLoader classLoader = result.classLoader();
+		final Class<?> type = classLoader.loadClass(className);
+		final String helper = className.replace(".", "._") + "_ToStringHelper";
+		return classLoader.loadClass(helper).getMethod("toString", type).invoke(null, type.getDeclaredConstructor().newInstance());
+	}
+}
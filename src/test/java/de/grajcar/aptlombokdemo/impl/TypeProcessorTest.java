@@ -0,0 +1,54 @@
+package de.grajcar.aptlombokdemo.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+class TypeProcessorTest {
+	@Test void membersOfInaccessibleTypesGetNamedByAnAccessibleSupertype() throws Exception {
+		final TestCompiler.Result result = TestCompiler.compile(Collections.emptyMap(), Collections.singletonList(TestCompiler.source("p.Holder", "package p;\n"
+				+ "@de.grajcar.aptlombokdemo.ToString @de.grajcar.aptlombokdemo.MakeComparable(sortKey = true) public class Holder {\n"
+				+ "\tprivate static class Secret implements Comparable<Secret> {\n"
+				+ "\t\tSecret(int v) { this.v = v; }\n"
+				+ "\t\t@Override public int compareTo(Secret o) { return Integer.compare(v, o.v); }\n"
+				+ "\t\t@Override public String toString() { return \"S\" + v; }\n"
+				+ "\t\tfinal int v;\n"
+				+ "\t}\n"
+				+ "\tprivate enum Color { RED, GREEN }\n"
+				+ "\tpublic Holder(int v, boolean green) { secret = new Secret(v); color = green ? Color.GREEN : Color.RED; secrets = new Secret[] {secret}; }\n"
+				+ "\tColor color;\n"
+				+ "\tprivate Secret secret;\n"
+				+ "\t@de.grajcar.aptlombokdemo.MakeComparable.Exclude private Secret[] secrets;\n"
+				+ "}\n")));
+		assertTrue(result.generatedSources.get("p._Holder_ToStringHelper").contains("private static java.lang.Object[] field_secrets(p.Holder object)"));
+		final String comparableHelper = result.generatedSources.get("p._Holder_MakeComparableHelper");
+		assertTrue(comparableHelper.contains("private static java.lang.Comparable field_secret(p.Holder object)"));
+		assertTrue(comparableHelper.contains("java.lang.Enum a = first.color;"));
+
+		final Object red1 = result.newInstance("p.Holder", 1, false);
+		final Object red2 = result.newInstance("p.Holder", 2, false);
+		final Object green1 = result.newInstance("p.Holder", 1, true);
+		assertEquals("Holder(color=RED, secret=S1, secrets=[S1])", result.call("p._Holder_ToStringHelper", "toString", red1));
+		assertEquals(-1, result.call("p._Holder_MakeComparableHelper", "compare", red1, red2));
+		assertEquals(-1, result.call("p._Holder_MakeComparableHelper", "compare", red2, green1));
+		assertEquals(0, result.call("p._Holder_MakeComparableHelper", "compare", red1, result.newInstance("p.Holder", 1, false)));
+		assertEquals(result.call("p._Holder_MakeComparableHelper", "sortKey", red1), result.call("p._Holder_MakeComparableHelper", "sortKey", red2));
+		assertTrue((long) result.call("p._Holder_MakeComparableHelper", "sortKey", red1) < (long) result.call("p._Holder_MakeComparableHelper", "sortKey", green1));
+	}
+
+	@Test void featuresPickTheirOwnMembersFromTheSharedSnapshot() throws Exception {
+		final TestCompiler.Result result = TestCompiler.compile(Collections.emptyMap(), Collections.singletonList(TestCompiler.source("p.Both", "package p;\n"
+				+ "@de.grajcar.aptlombokdemo.ToString @de.grajcar.aptlombokdemo.MakeComparable public class Both {\n"
+				+ "\tpublic Both(int shown, int compared) { this.shown = shown; this.compared = compared; }\n"
+				+ "\t@de.grajcar.aptlombokdemo.MakeComparable.Exclude int shown;\n"
+				+ "\t@de.grajcar.aptlombokdemo.ToString.Exclude private int compared;\n"
+				+ "\t@de.grajcar.aptlombokdemo.ToString.Include(name = \"twice\") int twice() { return 2 * shown; }\n"
+				+ "}\n")));
+		assertEquals("Both(shown=1, twice=2)", result.call("p._Both_ToStringHelper", "toString", result.newInstance("p.Both", 1, 5)));
+		assertEquals(0, result.call("p._Both_MakeComparableHelper", "compare", result.newInstance("p.Both", 1, 5), result.newInstance("p.Both", 2, 5)));
+		assertEquals(-1, result.call("p._Both_MakeComparableHelper", "compare", result.newInstance("p.Both", 2, 4), result.newInstance("p.Both", 1, 5)));
+	}
+}